@@ -1,6 +1,5 @@
 package cscie97.asn4.ecommerce.authentication;
 
-import java.util.Calendar;
 import java.util.Date;
 import java.util.UUID;
 
@@ -19,6 +18,11 @@ import java.util.UUID;
  */
 public class AccessToken {
 
+    /**
+     * How long a newly created AccessToken remains valid: 1 hour, in milliseconds
+     */
+    public static final long DEFAULT_LIFETIME_MILLIS = 60L * 60L * 1000L;
+
     /**
      * Unique identifier for the AccessToken; form is a GUID
      */
@@ -30,15 +34,17 @@ public class AccessToken {
     private String userID;
 
     /**
-     * When the AccessToken expires and is no longer valid for authentication purposes
+     * When the AccessToken expires and is no longer valid for authentication purposes, in milliseconds since the
+     * epoch; kept as a primitive so that checking expiry allocates nothing
      */
-    private Date expirationTime;
+    private volatile long expiresAt;
 
     /**
      * Each time a restricted interface method is called and the ID of this AccessToken is passed, this value is
-     * updated to the current time and the expirationTime is also updated to be 1 hour into the future
+     * updated to the current time and the expiration time is also updated to be 1 hour into the future; in
+     * milliseconds since the epoch
      */
-    private Date lastUpdated;
+    private volatile long lastUpdatedAt;
 
     /**
      * Class constructor.  Takes a userID to associate the token with a user account.
@@ -50,12 +56,24 @@ public class AccessToken {
         this.userID = userID;
 
         // default the expiration of the token to be 1 hour in the future
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(new Date());
-        cal.add(Calendar.HOUR_OF_DAY, 1);
-        this.expirationTime = cal.getTime();  // expire in 1 hour
+        long now = System.currentTimeMillis();
+        this.expiresAt = now + DEFAULT_LIFETIME_MILLIS;
+        this.lastUpdatedAt = now;
+    }
 
-        this.lastUpdated = new Date();
+    /**
+     * Class constructor.  Used for tokens whose ID is derived from their contents, such as signed tokens issued by
+     * {@link cscie97.asn4.ecommerce.authentication.SignedTokenCodec}.
+     *
+     * @param id         unique ID of the token
+     * @param userID     id of the user account to associate the token with
+     * @param expiresAt  when the token expires, in milliseconds since the epoch
+     */
+    public AccessToken(String id, String userID, long expiresAt) {
+        this.id = id;
+        this.userID = userID;
+        this.expiresAt = expiresAt;
+        this.lastUpdatedAt = System.currentTimeMillis();
     }
 
     /**
@@ -100,7 +118,7 @@ public class AccessToken {
      * @return  the time after which the token is no longer valid
      */
     public Date getExpirationTime() {
-        return expirationTime;
+        return new Date(expiresAt);
     }
 
     /**
@@ -109,7 +127,35 @@ public class AccessToken {
      * @param expirationTime  the time after which the token is no longer valid
      */
     public void setExpirationTime(Date expirationTime) {
-        this.expirationTime = expirationTime;
+        this.expiresAt = expirationTime.getTime();
+    }
+
+    /**
+     * When the token is no longer valid for authorization purposes
+     *
+     * @return  the time after which the token is no longer valid, in milliseconds since the epoch
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Sets when the token is no longer valid for authorization purposes
+     *
+     * @param expiresAt  the time after which the token is no longer valid, in milliseconds since the epoch
+     */
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Checks whether the token has expired, without allocating.
+     *
+     * @param nowMillis  the current time, in milliseconds since the epoch
+     * @return  true if the token is no longer valid, false otherwise
+     */
+    public boolean isExpired(long nowMillis) {
+        return nowMillis >= expiresAt;
     }
 
     /**
@@ -119,7 +165,7 @@ public class AccessToken {
      * @return  the time the token was last updated
      */
     public Date getLastUpdated() {
-        return lastUpdated;
+        return new Date(lastUpdatedAt);
     }
 
     /**
@@ -129,6 +175,24 @@ public class AccessToken {
      * @param lastUpdated  the time the token was last updated
      */
     public void setLastUpdated(Date lastUpdated) {
-        this.lastUpdated = lastUpdated;
+        this.lastUpdatedAt = lastUpdated.getTime();
+    }
+
+    /**
+     * Returns the last time that the token was accessed and updated
+     *
+     * @return  the time the token was last updated, in milliseconds since the epoch
+     */
+    public long getLastUpdatedAt() {
+        return lastUpdatedAt;
+    }
+
+    /**
+     * Sets the last time that the token was accessed and updated
+     *
+     * @param lastUpdatedAt  the time the token was last updated, in milliseconds since the epoch
+     */
+    public void setLastUpdatedAt(long lastUpdatedAt) {
+        this.lastUpdatedAt = lastUpdatedAt;
     }
 }
\ No newline at end of file
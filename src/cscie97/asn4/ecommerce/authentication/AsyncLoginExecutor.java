@@ -0,0 +1,268 @@
+package cscie97.asn4.ecommerce.authentication;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Runs logins for the {@link cscie97.asn4.ecommerce.authentication.AuthenticationServiceAPI} on a small, dedicated
+ * pool of threads, so that the CPU-heavy password hashing done by {@link PasswordHash#validatePassword} cannot tie up
+ * the threads that serve other requests.
+ *
+ * The pool has a fixed number of threads and a bounded queue.  Once the queue is full, further logins are refused
+ * immediately rather than waiting; their futures complete with a {@link java.util.concurrent.RejectedExecutionException}
+ * and the caller may retry later.  Identical attempts (same username and password) that arrive while one is already
+ * queued or running share its password check instead of hashing the password again; each attempt is still issued its
+ * own AccessToken once the check succeeds.  To recognize identical attempts, only a keyed digest of each password is
+ * held, under a random key that never leaves the executor.
+ *
+ * @author David Killeffer &lt;rayden7@gmail.com&gt;
+ * @version 1.0
+ * @see cscie97.asn4.ecommerce.authentication.AuthenticationServiceAPI
+ * @see cscie97.asn4.ecommerce.authentication.PasswordHash
+ */
+public class AsyncLoginExecutor {
+
+    /**
+     * A password check that is queued or running, shared by every identical attempt that arrives before it completes.
+     */
+    private static final class InFlightLogin {
+        private final byte[] passwordDigest;
+        private final CompletableFuture<User> verification = new CompletableFuture<User>();
+
+        private InFlightLogin(byte[] passwordDigest) {
+            this.passwordDigest = passwordDigest;
+        }
+
+        private boolean matches(byte[] passwordDigest) {
+            // constant-time comparison, so coalescing does not leak how much of a digest matched
+            return MessageDigest.isEqual(this.passwordDigest, passwordDigest);
+        }
+    }
+
+    /**
+     * MAC algorithm used to digest passwords for comparison between in-flight attempts
+     */
+    private static final String DIGEST_ALGORITHM = "HmacSHA256";
+
+    /**
+     * The service that performs the actual, synchronous login
+     */
+    private final AuthenticationServiceAPI authenticationAPI;
+
+    /**
+     * Random key for the password digests, generated for this executor alone
+     */
+    private final SecretKeySpec digestKey;
+
+    /**
+     * Each thread's own initialized Mac, since Mac instances are not thread-safe
+     */
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                Mac mac = Mac.getInstance(DIGEST_ALGORITHM);
+                mac.init(digestKey);
+                return mac;
+            }
+            catch (GeneralSecurityException gse) {
+                throw new IllegalStateException(DIGEST_ALGORITHM + " is not available", gse);
+            }
+        }
+    };
+
+    /**
+     * The dedicated login threads and their bounded queue
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * The password check currently queued or running for each username
+     */
+    private final ConcurrentMap<String, InFlightLogin> inFlightByUsername = new ConcurrentHashMap<String, InFlightLogin>();
+
+    /**
+     * Logins handed to the pool
+     */
+    private final AtomicLong submittedCount = new AtomicLong();
+
+    /**
+     * Logins that shared the password check of an identical attempt already in flight
+     */
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * Logins refused because the queue was full
+     */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Class constructor.
+     *
+     * @param authenticationAPI  the service that checks passwords and issues AccessTokens
+     * @param threads            the number of threads that may hash passwords at once
+     * @param queueCapacity      the greatest number of logins that may wait for a thread
+     */
+    public AsyncLoginExecutor(AuthenticationServiceAPI authenticationAPI, int threads, int queueCapacity) {
+        this.authenticationAPI = authenticationAPI;
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.digestKey = new SecretKeySpec(key, DIGEST_ALGORITHM);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new LoginThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Logs a user in asynchronously.  If an identical attempt for the username is already in flight, this attempt
+     * waits for that attempt's password check rather than starting its own, and is then issued its own AccessToken.
+     *
+     * @param username  the username to authenticate
+     * @param password  the user's password to authenticate
+     * @return  a future that completes with the user's AccessToken, or exceptionally with an
+     *          {@link AccessDeniedException} if the credentials are invalid, or a
+     *          {@link java.util.concurrent.RejectedExecutionException} if too many logins are already waiting
+     */
+    public CompletableFuture<AccessToken> login(final String username, final String password) {
+        if (username == null || password == null) {
+            CompletableFuture<AccessToken> denied = new CompletableFuture<AccessToken>();
+            denied.completeExceptionally(new AccessDeniedException(username, "", 0, "", null));
+            return denied;
+        }
+
+        byte[] passwordDigest = digest(password);
+        InFlightLogin attempt = new InFlightLogin(passwordDigest);
+        InFlightLogin existing = this.inFlightByUsername.putIfAbsent(username, attempt);
+        if (existing == null) {
+            submit(username, password, attempt, true);
+        }
+        else if (existing.matches(passwordDigest)) {
+            this.coalescedCount.incrementAndGet();
+            attempt = existing;
+        }
+        else {
+            // a different password for the same username is a separate attempt; run it without coalescing
+            submit(username, password, attempt, false);
+        }
+
+        // every caller gets its own token, even when the password check was shared
+        return attempt.verification.thenApply(new Function<User, AccessToken>() {
+            @Override
+            public AccessToken apply(User user) {
+                return authenticationAPI.issueToken(user, username);
+            }
+        });
+    }
+
+    private void submit(final String username, final String password,
+                        final InFlightLogin attempt, final boolean registered) {
+        try {
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        attempt.verification.complete(authenticationAPI.authenticate(username, password));
+                    }
+                    catch (Throwable t) {
+                        attempt.verification.completeExceptionally(t);
+                    }
+                    finally {
+                        if (registered) {
+                            inFlightByUsername.remove(username, attempt);
+                        }
+                    }
+                }
+            });
+            this.submittedCount.incrementAndGet();
+        }
+        catch (RejectedExecutionException ree) {
+            this.rejectedCount.incrementAndGet();
+            if (registered) {
+                this.inFlightByUsername.remove(username, attempt);
+            }
+            attempt.verification.completeExceptionally(ree);
+        }
+    }
+
+    /**
+     * Computes the keyed digest of a password, which is all that is kept of it while the attempt is in flight.
+     *
+     * @param password  the password to digest
+     * @return  the HMAC-SHA256 of the password under this executor's key
+     */
+    private byte[] digest(String password) {
+        return this.macs.get().doFinal(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the number of logins waiting for a thread.
+     *
+     * @return  the current queue depth
+     */
+    public int getQueueDepth() {
+        return this.executor.getQueue().size();
+    }
+
+    /**
+     * Returns how many logins were handed to the pool.
+     *
+     * @return  the number of submitted logins
+     */
+    public long getSubmittedCount() {
+        return this.submittedCount.get();
+    }
+
+    /**
+     * Returns how many logins shared the password check of an identical attempt already in flight.
+     *
+     * @return  the number of coalesced logins
+     */
+    public long getCoalescedCount() {
+        return this.coalescedCount.get();
+    }
+
+    /**
+     * Returns how many logins were refused because the queue was full.
+     *
+     * @return  the number of rejected logins
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+    /**
+     * Stops accepting logins; attempts already queued still run.
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+    /**
+     * Names the login threads and marks them as daemons, so that an idle pool does not keep the JVM alive.
+     */
+    private static final class LoginThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "login-" + this.threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,523 @@
+package cscie97.asn4.ecommerce.authentication;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records authentication and authorization events (logins, logouts, and each access decision) without slowing down
+ * the code that produces them.  Events are published into a preallocated ring buffer of fixed-size slots, and a
+ * single background thread drains the ring in batches, writing one line per event to a set of rolling files.
+ *
+ * Publishing an event allocates nothing: the slot's fields are plain array elements written in place, the subject and
+ * AccessToken ID are references to Strings the caller already holds, and the slot is claimed with a compare-and-set
+ * on a sequence counter rather than a lock.
+ *
+ * AccessToken IDs are bearer credentials, so they are never written out.  Each event records the User it concerns and,
+ * where a token was involved, a fingerprint of the token: the first bytes of its SHA-256, in hex.  The fingerprint is
+ * enough to tell one token's events from another's, but not to recover the token.  It is computed by the background
+ * thread as the event is written, so publishers never pay for the hash.  When the consumer falls behind and the ring is full, the
+ * {@link AuditLog.OverflowPolicy} decides whether new events are dropped or whether publishers wait for space; both
+ * outcomes are counted.
+ *
+ * @author David Killeffer &lt;rayden7@gmail.com&gt;
+ * @version 1.0
+ * @see cscie97.asn4.ecommerce.authentication.AuthenticationServiceAPI
+ */
+public class AuditLog {
+
+    /**
+     * The kinds of events recorded by the AuditLog.
+     */
+    public enum EventType {
+        LOGIN_SUCCEEDED,
+        LOGIN_FAILED,
+        LOGIN_THROTTLED,
+        LOGOUT,
+        ACCESS_GRANTED,
+        ACCESS_DENIED
+    }
+
+    /**
+     * What to do with a new event when the ring buffer is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard the new event and count it as dropped; publishers never wait
+         */
+        DROP,
+
+        /**
+         * Make the publisher wait until the consumer frees a slot; no event is lost
+         */
+        BLOCK
+    }
+
+    private static final EventType[] EVENT_TYPES = EventType.values();
+
+    /**
+     * Nanoseconds the consumer sleeps when the ring is empty, and a blocked publisher sleeps when it is full
+     */
+    private static final long IDLE_PARK_NANOS = 1000000L;
+
+    /**
+     * Set in {@link AuditLog#nextSequence} by {@link AuditLog#close()}, so that no sequence can be claimed afterwards
+     */
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final OverflowPolicy overflowPolicy;
+
+    /* the fields of each slot, indexed by sequence & mask */
+    private final long[] timestamps;
+    private final int[] eventTypes;
+    private final String[] subjects;
+    private final String[] tokenIDs;
+    private final int[] permissionOrdinals;
+
+    /**
+     * Number of leading bytes of the SHA-256 of an AccessToken ID written as its fingerprint
+     */
+    private static final int FINGERPRINT_BYTES = 8;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Digest for token fingerprints; used only by the background thread
+     */
+    private final MessageDigest fingerprintDigest;
+
+    /**
+     * The sequence number last published into each slot; a slot is ready for the consumer once this matches
+     */
+    private final AtomicLongArray publishedSequences;
+
+    /**
+     * The next sequence number to be claimed by a publisher; once the log is closed, also carries the CLOSED bit
+     */
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    /**
+     * The next sequence number the consumer will read; every sequence before it is free for reuse
+     */
+    private final AtomicLong consumedSequence = new AtomicLong();
+
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong blockedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong writeErrorCount = new AtomicLong();
+
+    private final RollingFileWriter output;
+
+    private final Thread consumer;
+
+    private volatile boolean running = true;
+
+    /**
+     * Class constructor.  Starts the background thread that writes events to the log files.
+     *
+     * @param directory       the directory to write the log files to; created if it does not exist
+     * @param baseName        the prefix of each log file's name
+     * @param capacity        the number of slots in the ring buffer; rounded up to a power of two
+     * @param overflowPolicy  what to do with new events when the ring buffer is full
+     * @param maxFileBytes    the size past which the current log file is closed and a new one started
+     * @param maxFiles        the number of log files kept; the oldest is deleted when a new one would exceed this
+     */
+    public AuditLog(File directory, String baseName, int capacity, OverflowPolicy overflowPolicy, long maxFileBytes, int maxFiles) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        this.overflowPolicy = overflowPolicy;
+        this.timestamps = new long[this.capacity];
+        this.eventTypes = new int[this.capacity];
+        this.subjects = new String[this.capacity];
+        this.tokenIDs = new String[this.capacity];
+        this.permissionOrdinals = new int[this.capacity];
+        this.publishedSequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            // no sequence has been published into any slot yet
+            this.publishedSequences.set(i, -1L);
+        }
+        try {
+            this.fingerprintDigest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException("SHA-256 is not available", nsae);
+        }
+        this.output = new RollingFileWriter(directory, baseName, maxFileBytes, maxFiles);
+        this.consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, "audit-log-writer");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    /**
+     * Records an event.  Allocates nothing.
+     *
+     * @param eventType          what happened
+     * @param subject            the User the event concerns: the username for login events, otherwise the User's ID;
+     *                           null if the AccessToken did not resolve to a User
+     * @param tokenID            the ID of the AccessToken involved, which is written only as a fingerprint; null if
+     *                           there was none
+     * @param permissionOrdinal  the ordinal of the Permission checked, or {@link PermissionRegistry#UNREGISTERED} if
+     *                           the event does not concern a Permission
+     * @return  true if the event was recorded, false if it was dropped because the ring buffer was full
+     */
+    public boolean publish(EventType eventType, String subject, String tokenID, int permissionOrdinal) {
+        long sequence = claim();
+        if (sequence < 0) {
+            return false;
+        }
+        int index = (int) (sequence & this.mask);
+        this.timestamps[index] = System.currentTimeMillis();
+        this.eventTypes[index] = eventType.ordinal();
+        this.subjects[index] = subject;
+        this.tokenIDs[index] = tokenID;
+        this.permissionOrdinals[index] = permissionOrdinal;
+        // release the slot's fields to the consumer
+        this.publishedSequences.lazySet(index, sequence);
+        this.publishedCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Claims the next free slot, applying the overflow policy if the ring is full.
+     *
+     * @return  the claimed sequence number, or -1 if the event is to be dropped
+     */
+    private long claim() {
+        boolean waited = false;
+        while (true) {
+            long sequence = this.nextSequence.get();
+            if ((sequence & CLOSED) != 0) {
+                // published after close(), so it would never be written
+                this.droppedCount.incrementAndGet();
+                return -1L;
+            }
+            if (sequence - this.consumedSequence.get() >= this.capacity) {
+                if (this.overflowPolicy == OverflowPolicy.DROP) {
+                    this.droppedCount.incrementAndGet();
+                    return -1L;
+                }
+                if (!waited) {
+                    this.blockedCount.incrementAndGet();
+                    waited = true;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            if (this.nextSequence.compareAndSet(sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+    }
+
+    /**
+     * Body of the background thread: repeatedly drains every published event, writes the batch, and sleeps briefly
+     * when there is nothing to write.
+     */
+    private void consume() {
+        StringBuilder line = new StringBuilder(128);
+        while (true) {
+            boolean stopping = !this.running;
+            int drained = drain(line);
+            if (drained > 0) {
+                flush();
+            }
+            else if (stopping && this.consumedSequence.get() == (this.nextSequence.get() & ~CLOSED)) {
+                // every sequence claimed before close() has been written
+                break;
+            }
+            else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        this.output.close();
+    }
+
+    /**
+     * Writes every event published so far, in sequence order, freeing their slots as it goes.
+     *
+     * @param line  reusable buffer for formatting each event
+     * @return  the number of events written
+     */
+    private int drain(StringBuilder line) {
+        int drained = 0;
+        long sequence = this.consumedSequence.get();
+        while (true) {
+            int index = (int) (sequence & this.mask);
+            if (this.publishedSequences.get(index) != sequence) {
+                break;
+            }
+            line.setLength(0);
+            format(index, line);
+            this.subjects[index] = null;
+            this.tokenIDs[index] = null;
+            sequence++;
+            this.consumedSequence.lazySet(sequence);
+            try {
+                this.output.write(line);
+                this.writtenCount.incrementAndGet();
+            }
+            catch (IOException ioe) {
+                this.writeErrorCount.incrementAndGet();
+            }
+            drained++;
+        }
+        return drained;
+    }
+
+    private void flush() {
+        try {
+            this.output.flush();
+        }
+        catch (IOException ioe) {
+            this.writeErrorCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Formats the event in a slot as a single line.
+     *
+     * @param index  the slot to format
+     * @param line   where to format the event
+     */
+    private void format(int index, StringBuilder line) {
+        line.append(Instant.ofEpochMilli(this.timestamps[index]).toString())
+            .append(' ').append(EVENT_TYPES[this.eventTypes[index]].name())
+            .append(" subject=").append((this.subjects[index] != null) ? this.subjects[index] : "-");
+        String tokenID = this.tokenIDs[index];
+        if (tokenID != null) {
+            line.append(" token=");
+            appendFingerprint(tokenID, line);
+        }
+        int ordinal = this.permissionOrdinals[index];
+        if (ordinal != PermissionRegistry.UNREGISTERED) {
+            line.append(" permission=").append(PermissionRegistry.getInstance().getPermissionID(ordinal));
+        }
+        line.append('\n');
+    }
+
+    /**
+     * Appends the fingerprint of an AccessToken ID: the first FINGERPRINT_BYTES of its SHA-256, in hex.
+     *
+     * @param tokenID  the AccessToken ID to fingerprint
+     * @param line     where to append the fingerprint
+     */
+    private void appendFingerprint(String tokenID, StringBuilder line) {
+        byte[] hash = this.fingerprintDigest.digest(tokenID.getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < FINGERPRINT_BYTES; i++) {
+            line.append(HEX_DIGITS[(hash[i] >> 4) & 0xf]).append(HEX_DIGITS[hash[i] & 0xf]);
+        }
+    }
+
+    /**
+     * Stops accepting events, waits for the background thread to write every event already published, and closes
+     * the current log file.  Events published afterwards are dropped, and counted as such.
+     *
+     * @throws InterruptedException  if interrupted while waiting for the background thread
+     */
+    public void close() throws InterruptedException {
+        long sequence = this.nextSequence.get();
+        while ((sequence & CLOSED) == 0 && !this.nextSequence.compareAndSet(sequence, sequence | CLOSED)) {
+            sequence = this.nextSequence.get();
+        }
+        this.running = false;
+        this.consumer.join();
+    }
+
+    /**
+     * Returns the number of slots in the ring buffer.
+     *
+     * @return  the ring buffer capacity
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Returns the number of events published but not yet written.
+     *
+     * @return  the current backlog
+     */
+    public long getBacklog() {
+        return (this.nextSequence.get() & ~CLOSED) - this.consumedSequence.get();
+    }
+
+    /**
+     * Returns how many events were recorded into the ring buffer.
+     *
+     * @return  the number of published events
+     */
+    public long getPublishedCount() {
+        return this.publishedCount.get();
+    }
+
+    /**
+     * Returns how many events were discarded because the ring buffer was full.
+     *
+     * @return  the number of dropped events
+     */
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    /**
+     * Returns how many publishers had to wait for space because the ring buffer was full.
+     *
+     * @return  the number of blocked publishes
+     */
+    public long getBlockedCount() {
+        return this.blockedCount.get();
+    }
+
+    /**
+     * Returns how many events were written to the log files.
+     *
+     * @return  the number of written events
+     */
+    public long getWrittenCount() {
+        return this.writtenCount.get();
+    }
+
+    /**
+     * Returns how many events could not be written because of an I/O error.
+     *
+     * @return  the number of write errors
+     */
+    public long getWriteErrorCount() {
+        return this.writeErrorCount.get();
+    }
+
+    /**
+     * Appends lines to a numbered series of files, starting a new file once the current one reaches a size limit and
+     * deleting the oldest files beyond a count limit.  The numbering carries on after the highest-numbered file left
+     * in the directory by an earlier run, so a restart never overwrites an earlier audit trail.  Used only by the
+     * AuditLog's background thread.
+     */
+    private static final class RollingFileWriter {
+        private final File directory;
+        private final String baseName;
+        private final long maxFileBytes;
+        private final int maxFiles;
+        private Writer writer = null;
+        private long fileBytes = 0;
+        private long fileIndex = 0;
+        private boolean resumed = false;
+
+        private RollingFileWriter(File directory, String baseName, long maxFileBytes, int maxFiles) {
+            this.directory = directory;
+            this.baseName = baseName;
+            this.maxFileBytes = maxFileBytes;
+            this.maxFiles = Math.max(1, maxFiles);
+        }
+
+        private void write(CharSequence line) throws IOException {
+            if (this.writer == null || this.fileBytes >= this.maxFileBytes) {
+                roll();
+            }
+            this.writer.append(line);
+            // audit lines are ASCII apart from the subject, so the character count is a close enough size estimate
+            this.fileBytes += line.length();
+        }
+
+        private void roll() throws IOException {
+            close();
+            if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+                throw new IOException("could not create audit log directory [" + this.directory + "]");
+            }
+            if (!this.resumed) {
+                resume();
+                this.resumed = true;
+            }
+            this.fileIndex++;
+            File expired = fileFor(this.fileIndex - this.maxFiles);
+            if (expired.exists() && !expired.delete()) {
+                throw new IOException("could not delete old audit log [" + expired + "]");
+            }
+            this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileFor(this.fileIndex)), StandardCharsets.UTF_8));
+            this.fileBytes = 0;
+        }
+
+        /**
+         * Continues the numbering after the files left by earlier runs, and deletes those of them that would fall
+         * outside the count limit once the next file is started.
+         */
+        private void resume() throws IOException {
+            File[] existing = this.directory.listFiles();
+            if (existing == null) {
+                return;
+            }
+            for (File file : existing) {
+                this.fileIndex = Math.max(this.fileIndex, indexOf(file));
+            }
+            for (File file : existing) {
+                long index = indexOf(file);
+                if (index > 0 && index <= this.fileIndex + 1 - this.maxFiles && !file.delete()) {
+                    throw new IOException("could not delete old audit log [" + file + "]");
+                }
+            }
+        }
+
+        /**
+         * Returns the number of one of this writer's log files, or -1 for any other file.
+         */
+        private long indexOf(File file) {
+            String name = file.getName();
+            String prefix = this.baseName + ".";
+            if (!name.startsWith(prefix) || !name.endsWith(".log") || name.length() <= prefix.length() + 4) {
+                return -1L;
+            }
+            String digits = name.substring(prefix.length(), name.length() - 4);
+            for (int i = 0; i < digits.length(); i++) {
+                if (!Character.isDigit(digits.charAt(i))) {
+                    return -1L;
+                }
+            }
+            try {
+                return Long.parseLong(digits);
+            }
+            catch (NumberFormatException nfe) {
+                return -1L;
+            }
+        }
+
+        private File fileFor(long index) {
+            return new File(this.directory, this.baseName + "." + index + ".log");
+        }
+
+        private void flush() throws IOException {
+            if (this.writer != null) {
+                this.writer.flush();
+            }
+        }
+
+        private void close() {
+            if (this.writer != null) {
+                try {
+                    this.writer.close();
+                }
+                catch (IOException ioe) { }
+                this.writer = null;
+            }
+        }
+    }
+
+}
@@ -8,6 +8,14 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Provides a single public method for handling the creation of new Authentication Service items, which include:
@@ -21,6 +29,12 @@ import java.io.IOException;
  * that comprise a Role, adding child Roles to Roles, adding Permissions to Services, and adding Credentials to Users
  * and granting Roles to Users.
  *
+ * Hashing the password of each Credential is by far the most expensive step of an import, so the passwords of
+ * add_credential lines are hashed in parallel on a pool of worker threads while the lines are applied, one at a time
+ * and in file order, to the {@link cscie97.asn4.ecommerce.authentication.IAuthenticationServiceAPI}.  The file is
+ * read as it is applied, with a look-ahead of a fixed number of lines whose passwords hash while earlier lines are
+ * applied, so neither a large file nor its hashes are ever held in memory all at once.
+ *
  * @author David Killeffer &lt;rayden7@gmail.com&gt;
  * @version 1.0
  * @see cscie97.asn4.ecommerce.authentication.IAuthenticationServiceAPI
@@ -31,6 +45,29 @@ import java.io.IOException;
  */
 public class AuthenticationImporter extends Importer {
 
+    /**
+     * Number of threads used to hash Credential passwords during an import
+     */
+    private static final int HASHING_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Number of lines read ahead of the line being applied, and so the greatest number of Credentials hashed or
+     * waiting to be applied at once
+     */
+    private static final int HASHING_WINDOW = HASHING_THREADS * 4;
+
+    /**
+     * The Permissions on the Authentication Service API that the importing User must hold
+     */
+    private static final EnumSet<PermissionType> REQUIRED_PERMISSIONS = EnumSet.of(
+            PermissionType.DEFINE_SERVICE,
+            PermissionType.DEFINE_PERMISSION,
+            PermissionType.DEFINE_ROLE,
+            PermissionType.CREATE_USER,
+            PermissionType.ADD_ENTITLEMENT_TO_ROLE,
+            PermissionType.ADD_CREDENTIAL_TO_USER,
+            PermissionType.ADD_ENTITLEMENT_TO_USER);
+
     /**
      * Public method for importing Authentication items into the Authentication Service catalog, including Services,
      * Roles, Permissions, and Users, and setting all appropriate attributes on those objects.
@@ -40,91 +77,122 @@ public class AuthenticationImporter extends Importer {
      * @throws ImportException        thrown when encountering non-parse related exceptions in the import process
      * @throws ParseException         thrown when encountering any issues parsing the input file related to the format of the file contents
      * @throws AccessDeniedException  thrown when encountering any permission-related issues calling the restricted methods of the IAuthenticationServiceAPI
+     * @throws AuthenticationImportException  thrown when the password of an add_credential line could not be hashed
      */
     public static void importAuthenticationFile(String tokenID, String filename)
-            throws ImportException, ParseException, AccessDeniedException {
+            throws ImportException, ParseException, AccessDeniedException, AuthenticationImportException {
 
         IAuthenticationServiceAPI authenticationAPI = AuthenticationServiceAPI.getInstance();
 
         // in order to run the import of the authentication.csv file, the User who owns the passed GUID AccessToken
-        // must have ALL of the permissions on the Authentication Service API, which include:
-        if (authenticationAPI.mayAccess(tokenID, PermissionType.DEFINE_SERVICE) &&
-                authenticationAPI.mayAccess(tokenID, PermissionType.DEFINE_PERMISSION) &&
-                authenticationAPI.mayAccess(tokenID, PermissionType.DEFINE_ROLE) &&
-                authenticationAPI.mayAccess(tokenID, PermissionType.CREATE_USER) &&
-                authenticationAPI.mayAccess(tokenID, PermissionType.ADD_ENTITLEMENT_TO_ROLE) &&
-                authenticationAPI.mayAccess(tokenID, PermissionType.ADD_CREDENTIAL_TO_USER) &&
-                authenticationAPI.mayAccess(tokenID, PermissionType.ADD_ENTITLEMENT_TO_USER)
-        ) {
+        // must have ALL of the permissions on the Authentication Service API (see REQUIRED_PERMISSIONS), which are
+        // checked together in one call
+        if (authenticationAPI.authorize(tokenID, REQUIRED_PERMISSIONS).containsAll(REQUIRED_PERMISSIONS)) {
             int lineNumber = 0;  // keep track of what lineNumber we're reading in from the input file for exception handling
             String line;  // store the text on each line as it's processed
 
+            ExecutorService hashingPool = Executors.newFixedThreadPool(HASHING_THREADS, new HashingThreadFactory());
             try {
+                HashingTimer hashingTimer = new HashingTimer();
+                int hashedCount = 0;
                 BufferedReader reader = new BufferedReader(new FileReader(filename));
-
-                while ((line = reader.readLine()) != null) {
-                    lineNumber++;
-
-                    // FIRST check if we encountered an empty line, and just skip to the next one if so
-                    if (line.length() == 0) { continue; }
-
-                    // SECOND check if the line contains column headers, since some lines may contain comments
-                    // (preceeded by hash character); if first character is a hash, skip to next line
-                    if (line.substring(0,1).matches("#")) { continue; }
-
-                    String[] cleanedColumns = CollectionImporter.parseCSVLine(line, ",");
-
-                    // depending on both the size of cleanedColumns as well as the first item in the array,
-                    // call the appropriate method to handle the command
-                    if (cleanedColumns != null ) {
-                        try {
-                            // define service
-                            if (cleanedColumns.length == 4 && cleanedColumns[0].equalsIgnoreCase("define_service")) {
-                                AuthenticationImporter.defineService(tokenID, cleanedColumns);
-                            }
-                            // define permission
-                            if (cleanedColumns.length == 5 && cleanedColumns[0].equalsIgnoreCase("define_permission")) {
-                                AuthenticationImporter.definePermission(tokenID, cleanedColumns);
-                            }
-                            // define role
-                            if (cleanedColumns.length == 4 && cleanedColumns[0].equalsIgnoreCase("define_role")) {
-                                AuthenticationImporter.defineRole(tokenID, cleanedColumns);
-                            }
-                            // add entitlement to role
-                            if (cleanedColumns.length == 3 && cleanedColumns[0].equalsIgnoreCase("add_entitlement_to_role")) {
-                                AuthenticationImporter.addEntitlementToRole(tokenID, cleanedColumns);
+                try {
+                    // the lines read ahead of the one being applied, each already hashing its password if it adds a
+                    // Credential
+                    ArrayDeque<PendingLine> lookAhead = new ArrayDeque<PendingLine>(HASHING_WINDOW);
+                    int linesRead = 0;
+                    boolean endOfFile = false;
+
+                    while (true) {
+                        while (!endOfFile && lookAhead.size() < HASHING_WINDOW) {
+                            String nextLine = reader.readLine();
+                            if (nextLine == null) {
+                                endOfFile = true;
                             }
-                            // create user
-                            if (cleanedColumns.length == 3 && cleanedColumns[0].equalsIgnoreCase("create_user")) {
-                                AuthenticationImporter.createUser(tokenID, cleanedColumns);
+                            else {
+                                linesRead++;
+                                lookAhead.add(readAhead(nextLine, linesRead, hashingPool, hashingTimer));
                             }
-                            // add credential
-                            if (cleanedColumns.length == 4 && cleanedColumns[0].equalsIgnoreCase("add_credential")) {
-                                AuthenticationImporter.addCredentialToUser(tokenID, cleanedColumns);
+                        }
+                        PendingLine pending = lookAhead.poll();
+                        if (pending == null) {
+                            break;
+                        }
+                        line = pending.line;
+                        lineNumber = pending.lineNumber;
+
+                        // FIRST check if we encountered an empty line, and just skip to the next one if so
+                        // SECOND check if the line contains column headers, since some lines may contain comments
+                        // (preceeded by hash character); if first character is a hash, skip to next line
+                        if (isSkipped(line)) { continue; }
+
+                        String[] cleanedColumns = pending.columns;
+
+                        // depending on both the size of cleanedColumns as well as the first item in the array,
+                        // call the appropriate method to handle the command
+                        if (cleanedColumns != null ) {
+                            try {
+                                // define service
+                                if (cleanedColumns.length == 4 && cleanedColumns[0].equalsIgnoreCase("define_service")) {
+                                    AuthenticationImporter.defineService(tokenID, cleanedColumns);
+                                }
+                                // define permission
+                                if (cleanedColumns.length == 5 && cleanedColumns[0].equalsIgnoreCase("define_permission")) {
+                                    AuthenticationImporter.definePermission(tokenID, cleanedColumns);
+                                }
+                                // define role
+                                if (cleanedColumns.length == 4 && cleanedColumns[0].equalsIgnoreCase("define_role")) {
+                                    AuthenticationImporter.defineRole(tokenID, cleanedColumns);
+                                }
+                                // add entitlement to role
+                                if (cleanedColumns.length == 3 && cleanedColumns[0].equalsIgnoreCase("add_entitlement_to_role")) {
+                                    AuthenticationImporter.addEntitlementToRole(tokenID, cleanedColumns);
+                                }
+                                // create user
+                                if (cleanedColumns.length == 3 && cleanedColumns[0].equalsIgnoreCase("create_user")) {
+                                    AuthenticationImporter.createUser(tokenID, cleanedColumns);
+                                }
+                                // add credential
+                                if (cleanedColumns.length == 4 && cleanedColumns[0].equalsIgnoreCase("add_credential")) {
+                                    Credentials credentials = awaitCredentials(pending.credentials, line, lineNumber, filename);
+                                    AuthenticationImporter.addCredentialToUser(tokenID, cleanedColumns, credentials);
+                                    hashedCount++;
+                                }
+                                // add entitlement to user
+                                if (cleanedColumns.length == 3 && cleanedColumns[0].equalsIgnoreCase("add_entitlement_to_user")) {
+                                    AuthenticationImporter.addEntitlementToUser(tokenID, cleanedColumns);
+                                }
                             }
-                            // add entitlement to user
-                            if (cleanedColumns.length == 3 && cleanedColumns[0].equalsIgnoreCase("add_entitlement_to_user")) {
-                                AuthenticationImporter.addEntitlementToUser(tokenID, cleanedColumns);
+                            catch (ParseException pe) {
+                                throw new ParseException(pe.getMessage(), line, lineNumber, filename, pe);
                             }
                         }
-                        catch (ParseException pe) {
-                            throw new ParseException(pe.getMessage(), line, lineNumber, filename, pe);
+                        else {
+                            throw new ParseException("Import Authentication line contains invalid data for the authentication data row.",
+                                    line,
+                                    lineNumber,
+                                    filename,
+                                    null);
                         }
                     }
-                    else {
-                        throw new ParseException("Import Authentication line contains invalid data for the authentication data row.",
-                                line,
-                                lineNumber,
-                                filename,
-                                null);
-                    }
                 }
+                finally {
+                    reader.close();
+                }
+
+                long elapsedMillis = hashingTimer.getElapsedMillis();
+                System.out.println(String.format("Hashed %d credentials on %d threads in %d ms (%.1f credentials/second)",
+                        hashedCount, HASHING_THREADS, elapsedMillis,
+                        (elapsedMillis == 0) ? 0.0 : hashedCount * 1000.0 / elapsedMillis));
 
                 // lastly, print out an inventory of all the items in the Authentication Service API catalog
                 System.out.println(String.format("\n******************************\n"));
                 System.out.println(authenticationAPI.getInventory());
                 System.out.println(String.format("\n******************************\n"));
             }
+            catch (AuthenticationImportException aie) {
+                throw aie;
+            }
             catch (FileNotFoundException fnfe) {
                 throw new ImportException("Could not find file ["+filename+"] to open for reading", lineNumber, filename, fnfe);
             }
@@ -134,12 +202,137 @@ public class AuthenticationImporter extends Importer {
             catch (Exception e) {
                 throw new ImportException("Caught a generic Exception when attempting to read file ["+filename+"]", lineNumber, filename, e);
             }
+            finally {
+                hashingPool.shutdownNow();
+            }
 
         }
         // NOT ALLOWED!
         else throw new AccessDeniedException(tokenID, "", 0, "", null);
     }
 
+    /**
+     * Checks whether a line of the authentication file carries no command: it is either empty or a comment
+     * (preceeded by hash character).
+     *
+     * @param line  the line to check
+     * @return  true if the line should be skipped, false otherwise
+     */
+    private static boolean isSkipped(String line) {
+        return line.length() == 0 || line.charAt(0) == '#';
+    }
+
+    /**
+     * Checks whether the parsed columns of a line hold an add_credential command, using the same test as the loop
+     * that applies the lines.
+     *
+     * @param columns  the parsed columns of a line, or null for a line without a command
+     * @return  true if the line adds a Credential
+     */
+    private static boolean isAddCredential(String[] columns) {
+        return columns != null && columns.length == 4 && columns[0].equalsIgnoreCase("add_credential");
+    }
+
+    /**
+     * Parses a line read ahead of the one being applied and, if it adds a Credential, starts hashing its password, so
+     * that the hashing overlaps with applying the lines before it.
+     *
+     * @param line          the line as read from the file
+     * @param lineNumber    the (1-based) line number it was read from
+     * @param hashingPool   the worker threads to hash passwords on
+     * @param hashingTimer  records how long the hashing took
+     * @return  the line, its parsed columns, and its pending Credentials if it has any
+     */
+    private static PendingLine readAhead(String line, int lineNumber, ExecutorService hashingPool, final HashingTimer hashingTimer) {
+        final String[] columns = isSkipped(line) ? null : CollectionImporter.parseCSVLine(line, ",");
+        Future<Credentials> credentials = null;
+        if (isAddCredential(columns)) {
+            credentials = hashingPool.submit(new Callable<Credentials>() {
+                @Override
+                public Credentials call() {
+                    long start = System.nanoTime();
+                    Credentials hashed = new Credentials(columns[2].trim(), columns[3].trim());
+                    hashingTimer.record(start, System.nanoTime());
+                    return hashed;
+                }
+            });
+        }
+        return new PendingLine(line, lineNumber, columns, credentials);
+    }
+
+    /**
+     * Waits for the Credentials of an add_credential line to finish hashing.
+     *
+     * @param hashedCredentials  the pending Credentials for the line
+     * @param line               the line, for reporting a failure
+     * @param lineNumber         the line number, for reporting a failure
+     * @param filename           the file being imported, for reporting a failure
+     * @return  the hashed Credentials
+     * @throws AuthenticationImportException  if hashing failed, or the import was interrupted while waiting
+     */
+    private static Credentials awaitCredentials(Future<Credentials> hashedCredentials, String line, int lineNumber, String filename)
+            throws AuthenticationImportException {
+        try {
+            return hashedCredentials.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new AuthenticationImportException(line, lineNumber, filename, ie);
+        }
+        catch (ExecutionException ee) {
+            throw new AuthenticationImportException(line, lineNumber, filename, ee.getCause());
+        }
+    }
+
+    /**
+     * A line read ahead of the one being applied: its text, where it was read from, its parsed columns (null for a
+     * line without a command), and, for an add_credential line, its Credentials being hashed.
+     */
+    private static final class PendingLine {
+        private final String line;
+        private final int lineNumber;
+        private final String[] columns;
+        private final Future<Credentials> credentials;
+
+        private PendingLine(String line, int lineNumber, String[] columns, Future<Credentials> credentials) {
+            this.line = line;
+            this.lineNumber = lineNumber;
+            this.columns = columns;
+            this.credentials = credentials;
+        }
+    }
+
+    /**
+     * Measures the time from the start of the first hash to the end of the last, across all the hashing threads.
+     */
+    private static final class HashingTimer {
+        private long firstStart = Long.MAX_VALUE;
+        private long lastEnd = Long.MIN_VALUE;
+
+        private synchronized void record(long start, long end) {
+            this.firstStart = Math.min(this.firstStart, start);
+            this.lastEnd = Math.max(this.lastEnd, end);
+        }
+
+        private synchronized long getElapsedMillis() {
+            return (this.lastEnd < this.firstStart) ? 0 : (this.lastEnd - this.firstStart) / 1000000L;
+        }
+    }
+
+    /**
+     * Names the hashing threads and marks them as daemons, so that an unfinished import does not keep the JVM alive.
+     */
+    private static final class HashingThreadFactory implements ThreadFactory {
+        private int threadCount = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "credential-hashing-" + (++this.threadCount));
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
     /**
      * Creates services and adds them to the {@link cscie97.asn4.ecommerce.authentication.AuthenticationServiceAPI}.
      * The format of each element in authenticationData should be:
@@ -302,7 +495,9 @@ public class AuthenticationImporter extends Importer {
      *
      * @param tokenID                   access token for carrying out restricted interface actions such as this
      * @param authenticationData     string array of lines (each line is part of a CSV file) to be parsed and loaded as a new Authentication Service registered User
-     * @throws cscie97.asn4.ecommerce.exception.ParseException    if an error occurred parsing the authenticationData
+     * @throws cscie97.asn4.ecommerce.exception.ParseException    if an error occurred parsing the authenticationData, or
+     *                                                           the Entitlement could not be added, for example because
+     *                                                           it would create a cycle in the Role graph
      */
     private static void addEntitlementToRole(String tokenID, String[] authenticationData) throws ParseException {
         // ensure that we have exactly 3 elements passed and that the first element is "add_entitlement_to_role"
@@ -321,7 +516,13 @@ public class AuthenticationImporter extends Importer {
         String entitlementID = authenticationData[2].trim();
 
         IAuthenticationServiceAPI authenticationAPI = AuthenticationServiceAPI.getInstance();
-        authenticationAPI.addPermissionToRole(tokenID, roleID, entitlementID);
+        if (!authenticationAPI.addPermissionToRole(tokenID, roleID, entitlementID)) {
+            throw new ParseException("Import Authentication line could not add Entitlement ["+entitlementID+"] to Role ["+roleID+"]; either is not defined, or the Entitlement is a Role that already contains the Role: "+ StringUtils.join(authenticationData, ","),
+                    null,
+                    0,
+                    null,
+                    null);
+        }
 
         System.out.println(String.format("Adding Entitlement ID [%s] to Role ID [%s]\n", roleID, entitlementID));
     }
@@ -341,9 +542,10 @@ public class AuthenticationImporter extends Importer {
      *
      * @param tokenID                   access token for carrying out restricted interface actions such as this
      * @param authenticationData     string array of lines (each line is part of a CSV file) to be parsed and loaded as a new Authentication Service registered User
+     * @param credentials            the Credentials for the line, already hashed on a worker thread
      * @throws cscie97.asn4.ecommerce.exception.ParseException    if an error occurred parsing the authenticationData
      */
-    private static void addCredentialToUser(String tokenID, String[] authenticationData) throws ParseException {
+    private static void addCredentialToUser(String tokenID, String[] authenticationData, Credentials credentials) throws ParseException {
         // ensure that we have exactly 4 elements passed and that the first element is "add_credential"
         if (authenticationData == null ||
             authenticationData.length != 4 ||
@@ -361,7 +563,7 @@ public class AuthenticationImporter extends Importer {
         String password = authenticationData[3].trim();
 
         IAuthenticationServiceAPI authenticationAPI = AuthenticationServiceAPI.getInstance();
-        authenticationAPI.addCredentialToUser(tokenID, userID, username, password);
+        authenticationAPI.addCredentialToUser(tokenID, userID, credentials);
 
         System.out.println(String.format("Adding Credentials username [%s] password [%s] to User ID [%s]\n", username, password, userID));
     }
@@ -1,10 +1,19 @@
 package cscie97.asn4.ecommerce.authentication;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.UUID;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Concrete implementation class of the AuthenticaitonServiceAPI.  Administrators may use the methods here to create and
@@ -33,20 +42,98 @@ public class AuthenticationServiceAPI implements IAuthenticationServiceAPI {
     private User superUser;
 
     /**
-     * The unique top-level Entitlements contained in the Authentication catalog; each Entitlement may only be
-     * declared at the top-level once, but may be nested arbitrarily deeply in other Entitlements.
+     * The unique top-level Entitlements (Roles and Permissions) contained in the Authentication catalog, keyed by
+     * Entitlement ID; each Entitlement ID may only be declared at the top-level once, but the Entitlement may be
+     * nested arbitrarily deeply in other Entitlements.
      */
-    private Set<Entitlement> entitlements = new HashSet<Entitlement>();
+    private ConcurrentMap<String, Entitlement> entitlementsByID = new ConcurrentHashMap<String, Entitlement>();
 
     /**
-     * The unique Services contained in the Authentication catalog.
+     * The unique Services contained in the Authentication catalog, keyed by Service ID.
      */
-    private Set<Service> services = new HashSet<Service>();
+    private ConcurrentMap<String, Service> servicesByID = new ConcurrentHashMap<String, Service>();
 
     /**
-     * The unique registered Users contained in the Authentication catalog.
+     * The unique registered Users contained in the Authentication catalog, keyed by User ID.
      */
-    private Set<User> users = new HashSet<User>();
+    private ConcurrentMap<String, User> usersByID = new ConcurrentHashMap<String, User>();
+
+    /**
+     * Index of the registered Users keyed by each username found in their Credentials, so that logins do not need
+     * to scan every User's Credentials.
+     */
+    private ConcurrentMap<String, User> usersByUsername = new ConcurrentHashMap<String, User>();
+
+    /**
+     * The active sessions, keyed by AccessToken ID, used to resolve the owning User of a token in constant time.
+     */
+    private SessionStore sessions = new SessionStore();
+
+    /**
+     * System property holding the key used to sign stateless AccessTokens; when it is set, signed tokens are enabled
+     * from startup
+     */
+    public static final String TOKEN_KEY_PROPERTY = "cscie97.asn4.authentication.tokenKey";
+
+    /**
+     * Issues and verifies signed AccessTokens; null while logins issue stateful session tokens
+     */
+    private volatile SignedTokenCodec signedTokens = null;
+
+    /**
+     * Signed AccessTokens that were logged out before they expired, mapped to their expiration time
+     */
+    private ConcurrentMap<String, Long> revokedTokens = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * How often token lookups sweep out expired sessions and revocations, in milliseconds; one tick of the wheels
+     */
+    private static final long EXPIRY_SWEEP_MILLIS = 1000L;
+
+    /**
+     * Schedules each revoked signed token to be dropped from the revocation list once it would have expired anyway
+     */
+    private TimingWheel<String> revocationWheel = new TimingWheel<String>(EXPIRY_SWEEP_MILLIS, 4, System.currentTimeMillis());
+
+    /**
+     * The earliest time, in milliseconds since the epoch, at which a token lookup will next sweep
+     */
+    private final AtomicLong nextExpirySweep = new AtomicLong();
+
+    /**
+     * The largest burst of logins permitted for a single username, and the sustained rate (per second) after it
+     */
+    private static final int USER_LOGIN_BURST = 10;
+    private static final double USER_LOGINS_PER_SECOND = 1.0;
+
+    /**
+     * The largest burst of logins permitted across all usernames, and the sustained rate (per second) after it
+     */
+    private static final int GLOBAL_LOGIN_BURST = 500;
+    private static final double GLOBAL_LOGINS_PER_SECOND = 200.0;
+
+    /**
+     * Refuses logins that arrive too quickly, before any password is hashed
+     */
+    private volatile LoginThrottle loginThrottle = new LoginThrottle(USER_LOGIN_BURST, USER_LOGINS_PER_SECOND,
+            GLOBAL_LOGIN_BURST, GLOBAL_LOGINS_PER_SECOND);
+
+    /**
+     * The greatest number of logins that may wait for a login thread before further logins are refused
+     */
+    private static final int LOGIN_QUEUE_CAPACITY = 256;
+
+    /**
+     * Runs asynchronous logins on a dedicated pool sized to half the processors, so that password hashing always
+     * leaves CPU for other requests
+     */
+    private AsyncLoginExecutor loginExecutor = new AsyncLoginExecutor(this,
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2), LOGIN_QUEUE_CAPACITY);
+
+    /**
+     * Records logins, logouts and access decisions; null while auditing is off
+     */
+    private volatile AuditLog auditLog = null;
 
     /**
      * Singleton instance of the AuthenticationServiceAPI
@@ -54,11 +141,13 @@ public class AuthenticationServiceAPI implements IAuthenticationServiceAPI {
     private static IAuthenticationServiceAPI instance = null;
 
     /**
-     * Class constructor.  Declares the top-level entitlements to initially be an empty HashSet.  Also creates the
-     * initial "super user" that is used to load the Authentication catalog.
+     * Class constructor.  Creates the initial "super user" that is used to load the Authentication catalog.
      */
     private AuthenticationServiceAPI() {
-        this.entitlements = new HashSet<Entitlement>() { };
+        String tokenKey = System.getProperty(TOKEN_KEY_PROPERTY);
+        if (tokenKey != null && !tokenKey.isEmpty()) {
+            enableSignedTokens(tokenKey.getBytes(StandardCharsets.UTF_8));
+        }
 
         // create an initial "Super User" that may be used to initially load the authentication.csv file
         createSuperUser();
@@ -75,7 +164,7 @@ public class AuthenticationServiceAPI implements IAuthenticationServiceAPI {
             // create a hard-coded special "Super User" so that we can use that super user to import the Authentication data
             this.superUser = new User(UUID.randomUUID().toString(), SUPER_ADMINISTRATOR_USERNAME, "Administrative Super User");
             superUser.addCredential( new Credentials(SUPER_ADMINISTRATOR_USERNAME, SUPER_ADMINISTRATOR_PASSWORD) );
-            superUser.setAccessToken( new AccessToken(superUser.getID()) );
+            this.sessions.open(superUser, new AccessToken(superUser.getID()) );
 
             // define primary Authentication Service
             String authServiceID = "authentication_service";
@@ -110,15 +199,16 @@ public class AuthenticationServiceAPI implements IAuthenticationServiceAPI {
 
             authenticationService.addPermissions( allAuthPermissionsList );
 
-            // because the services are defined as a Set, we can add this without fear of it being a duplicate
-            this.services.add(authenticationService);
+            registerService(authenticationService);
 
-            this.entitlements.addAll( allAuthPermissionsSet );
-            this.entitlements.add( authenticationRole );
+            for (Entitlement permission : allAuthPermissionsSet) {
+                registerEntitlement(permission);
+            }
+            registerEntitlement(authenticationRole);
 
             superUser.addEntitlement(authenticationRole);
 
-            this.users.add(superUser);
+            registerUser(superUser);
         }
     }
 
@@ -137,15 +227,16 @@ public class AuthenticationServiceAPI implements IAuthenticationServiceAPI {
 
     /**
      * Adds a new Service definition to the catalog.  Services can contain child permissions, but primarily serve as a
-     * marker class to logically group permissions into sensible sets.
+     * marker class to logically group permissions into sensible sets.  If a Service with the same ID is already
+     * defined, the existing Service is kept.
      *
      * @param tokenID  id of the AccessToken to use for authentication to execute this method
      * @param service  the Service object to add to the Authentication catalog
      */
     @Override
     public void addService(String tokenID, Service service) {
-        if (this.mayAccess(tokenID, "define_service")) {
-            this.services.add(service);
+        if (this.mayAccess(tokenID, PermissionType.DEFINE_SERVICE)) {
+            registerService(service);
         }
     }
 
@@ -158,13 +249,14 @@ public class AuthenticationServiceAPI implements IAuthenticationServiceAPI {
     @Override
     public void addUser(String tokenID, User user) {
         if (this.mayAccess(tokenID, PermissionType.CREATE_USER)) {
-            this.users.add(user);
+            registerUser(user);
         }
     }
 
     /**
      * Adds a new Role to the catalog.  Roles may contain other Roles or Permissions to define logical groupings that
-     * correspond to types of Users that may use the AuthenticationServiceAPI.
+     * correspond to types of Users that may use the AuthenticationServiceAPI.  If an Entitlement with the same ID is
+     * already defined, the existing Entitlement is kept.
      *
      * @param tokenID  id of the AccessToken to use for authentication to execute this method
      * @param role     the Role object to add to the Authentication catalog
@@ -172,12 +264,13 @@ public class AuthenticationServiceAPI implements IAuthenticationServiceAPI {
     @Override
     public void addRole(String tokenID, Role role) {
         if (mayAccess(tokenID, PermissionType.DEFINE_ROLE)) {
-            this.entitlements.add(role);
+            registerEntitlement(role);
         }
     }
 
     /**
-     * Adds a new Permission to the catalog as a child of the Service
+     * Adds a new Permission to the catalog as a child of the Service.  If a Permission with the same ID is already
+     * defined, the existing Permission is added to the Service instead.
      *
      * @param tokenID     id of the AccessToken to use for authentication to execute this method
      * @param serviceID   the pre-existing Service ID to add the Permission to
@@ -188,32 +281,39 @@ public class AuthenticationServiceAPI implements IAuthenticationServiceAPI {
         if (mayAccess(tokenID, PermissionType.DEFINE_PERMISSION)) {
             Service service = this.getServiceById(serviceID);
             if (service != null) {
-                service.addPermission(permission);
-                this.entitlements.add(permission);
+                Entitlement registered = registerEntitlement(permission);
+                // an ID already taken by a Role cannot also name a Permission
+                if (registered instanceof Permission) {
+                    service.addPermission((Permission) registered);
+                }
             }
         }
     }
 
     /**
-     * Adds a new Permission to the catalog as a child of the Role.
+     * Adds a pre-existing Entitlement (either a Permission or another Role) to the catalog as a child of the Role.
+     * A child Role that already contains the parent Role is rejected, so the Role graph never contains a cycle.
      *
      * @param tokenID       id of the AccessToken to use for authentication to execute this method
-     * @param roleID        the pre-existing Role ID to add the Permission to
-     * @param permissionID  the pre-existing Permission ID to add as a child of the Role
+     * @param roleID        the pre-existing Role ID to add the Entitlement to
+     * @param permissionID  the pre-existing Permission or Role ID to add as a child of the Role
+     * @return  true if the Entitlement was added; false if the caller may not add Entitlements to Roles, either ID is
+     *          not defined, or the Entitlement is a Role that already contains the Role
      */
     @Override
-    public void addPermissionToRole(String tokenID, String roleID, String permissionID) {
+    public boolean addPermissionToRole(String tokenID, String roleID, String permissionID) {
         if (mayAccess(tokenID, PermissionType.ADD_ENTITLEMENT_TO_ROLE)) {
             Entitlement foundRole = this.getEntitlementById(roleID);
-            Entitlement foundPermission = this.getEntitlementById(permissionID);
+            Entitlement foundEntitlement = this.getEntitlementById(permissionID);
             if (foundRole != null &&
                 foundRole instanceof Role &&
-                foundPermission != null &&
-                foundPermission instanceof Permission
+                foundEntitlement != null
             ) {
-                ((Role) foundRole).addChild(foundPermission);
+                // rejected by the Role if it would introduce a cycle
+                return ((Role) foundRole).addChild(foundEntitlement);
             }
         }
+        return false;
     }
 
     /**
@@ -230,6 +330,26 @@ public class AuthenticationServiceAPI implements IAuthenticationServiceAPI {
             User foundUser = this.getUserByUserID(userID);
             if (foundUser != null) {
                 foundUser.addCredential( new Credentials(username, password) );
+                this.usersByUsername.putIfAbsent(username, foundUser);
+            }
+        }
+    }
+
+    /**
+     * Adds an existing Credential, whose password has already been hashed, to the User.  Allows callers such as the
+     * {@link cscie97.asn4.ecommerce.authentication.AuthenticationImporter} to hash passwords ahead of time.
+     *
+     * @param tokenID      id of the AccessToken to use for authentication to execute this method
+     * @param userID       the pre-existing User ID to add the Credential to
+     * @param credentials  the Credential to add
+     */
+    @Override
+    public void addCredentialToUser(String tokenID, String userID, Credentials credentials) {
+        if (credentials != null && mayAccess(tokenID, PermissionType.ADD_CREDENTIAL_TO_USER)) {
+            User foundUser = this.getUserByUserID(userID);
+            if (foundUser != null) {
+                foundUser.addCredential(credentials);
+                this.usersByUsername.putIfAbsent(credentials.getUsername(), foundUser);
             }
         }
     }
@@ -253,28 +373,146 @@ public class AuthenticationServiceAPI implements IAuthenticationServiceAPI {
     }
 
     /**
-     * Logs a user into the AuthenticationService.  Modifies the AccessToken of the User to expire in 1 hour.
+     * Logs a user into the AuthenticationService, opening a new session with an AccessToken that expires in 1 hour.
+     * Sessions the User already holds on other devices stay active, unless the User has reached the per-user session
+     * cap, in which case their oldest session is closed.  Logins that arrive too quickly, for the username or across
+     * all users, are refused with a {@link cscie97.asn4.ecommerce.authentication.LoginThrottledException} before the
+     * password is checked.
      *
      * @param username   the username to authenticate
      * @param password   the user's password to authenticate
-     * @throws AccessDeniedException  thrown if the credentials passed are invalid
+     * @throws AccessDeniedException  thrown if the credentials passed are invalid, or the login was throttled
      * @return the AccessToken of the user
      */
     @Override
     public AccessToken login(String username, String password) throws AccessDeniedException {
+        return issueToken(authenticate(username, password), username);
+    }
+
+    /**
+     * Helper method that verifies a login's credentials, without issuing an AccessToken.  Separate from
+     * {@link AuthenticationServiceAPI#issueToken(User, String)} so that the
+     * {@link cscie97.asn4.ecommerce.authentication.AsyncLoginExecutor} can share one password check between identical
+     * attempts while still giving each its own AccessToken.
+     *
+     * @param username   the username to authenticate
+     * @param password   the user's password to authenticate
+     * @return  the User the credentials belong to
+     * @throws AccessDeniedException  thrown if the credentials passed are invalid, or the login was throttled
+     */
+    User authenticate(String username, String password) throws AccessDeniedException {
+        // refuse login storms before they can spend any CPU on password hashing
+        try {
+            this.loginThrottle.acquire(username);
+        }
+        catch (LoginThrottledException lte) {
+            audit(AuditLog.EventType.LOGIN_THROTTLED, username, null, PermissionRegistry.UNREGISTERED);
+            throw lte;
+        }
+
+        // logins are what grow the session store, so sweep out expired sessions as they arrive
+        expireSessions();
+
         User foundUser = getUserByUsername(username);
         if (foundUser != null) {
             if ( foundUser.validatePassword(password) ) {
-                // whether the user has an existing access token or not, just generate a new on that will
-                // expire in an hour, assign that to the user, and return it
-                AccessToken token = new AccessToken( foundUser.getID() );
-                foundUser.setAccessToken(token);
-                return foundUser.getAccessToken();
+                return foundUser;
             }
         }
+        audit(AuditLog.EventType.LOGIN_FAILED, username, null, PermissionRegistry.UNREGISTERED);
         throw new AccessDeniedException(username, "", 0, "", null);
     }
 
+    /**
+     * Helper method that issues a new AccessToken to a User whose credentials have been verified, opening a session
+     * for it unless signed tokens are enabled.
+     *
+     * @param foundUser  the authenticated User
+     * @param username   the username the User logged in with
+     * @return  the new AccessToken, which expires in 1 hour
+     */
+    AccessToken issueToken(User foundUser, String username) {
+        AccessToken token;
+        SignedTokenCodec codec = this.signedTokens;
+        if (codec != null) {
+            // stateless: the token carries everything needed to validate it, so no session is opened
+            token = codec.issue(foundUser);
+        }
+        else {
+            // generate a new token that will expire in an hour, alongside any the user already holds
+            token = new AccessToken( foundUser.getID() );
+            this.sessions.open(foundUser, token);
+        }
+        audit(AuditLog.EventType.LOGIN_SUCCEEDED, username, token.getId(), PermissionRegistry.UNREGISTERED);
+        return token;
+    }
+
+    /**
+     * Logs a user into the AuthenticationService without blocking the caller.  Password verification runs on a
+     * dedicated, bounded pool of threads; when too many logins are already waiting, the attempt is refused at once.
+     * Identical attempts for the same username that arrive while one is in flight share its password check, but each
+     * still receives its own AccessToken and session.
+     *
+     * @param username   the username to authenticate
+     * @param password   the user's password to authenticate
+     * @return a future that completes with the AccessToken of the user, or exceptionally with an
+     *         AccessDeniedException if the credentials passed are invalid, or a RejectedExecutionException if the
+     *         login could not be admitted
+     */
+    @Override
+    public CompletableFuture<AccessToken> loginAsync(String username, String password) {
+        return this.loginExecutor.login(username, password);
+    }
+
+    /**
+     * Returns the limiter that throttles logins, which exposes rejection counters.
+     *
+     * @return  the login throttle
+     */
+    public LoginThrottle getLoginThrottle() {
+        return this.loginThrottle;
+    }
+
+    /**
+     * Replaces the limiter that throttles logins, for example to change the permitted rates.
+     *
+     * @param loginThrottle  the new login throttle
+     */
+    public void setLoginThrottle(LoginThrottle loginThrottle) {
+        this.loginThrottle = loginThrottle;
+    }
+
+    /**
+     * Returns the audit log that records logins, logouts and access decisions.
+     *
+     * @return  the audit log, or null if auditing is off
+     */
+    public AuditLog getAuditLog() {
+        return this.auditLog;
+    }
+
+    /**
+     * Starts recording logins, logouts and access decisions to the audit log, replacing any previous one; passing
+     * null turns auditing off.  The caller is responsible for closing the previous audit log.
+     *
+     * @param auditLog  the audit log to record events to, or null
+     * @return  the previous audit log, or null if there was none
+     */
+    public AuditLog setAuditLog(AuditLog auditLog) {
+        AuditLog previous = this.auditLog;
+        this.auditLog = auditLog;
+        return previous;
+    }
+
+    /**
+     * Returns the executor that runs asynchronous logins, which exposes queue depth and admission metrics.
+     *
+     * @return  the asynchronous login executor
+     */
+    public AsyncLoginExecutor getLoginExecutor() {
+        return this.loginExecutor;
+    }
+
     /**
      * Logs the User out that owns the AccessToken with the supplied ID.  Modifies the AccessToken to set the
      * expiration time to be now.
@@ -283,14 +521,17 @@ public class AuthenticationServiceAPI implements IAuthenticationServiceAPI {
      */
     @Override
     public void logout(String tokenID) {
-        // need to find the user that owns the token, then destroy the token on that user
-        User foundUser = getUserByAccessTokenID(tokenID);
-        if (foundUser != null) {
-            AccessToken foundToken = foundUser.getAccessToken();
-            if (foundToken != null && foundToken.getId().equals(tokenID)) {
-                foundToken.setLastUpdated(new Date());
-                foundToken.setExpirationTime(new Date());
-            }
+        if (SignedTokenCodec.isSigned(tokenID)) {
+            audit(AuditLog.EventType.LOGOUT, revokeSignedToken(tokenID), tokenID, PermissionRegistry.UNREGISTERED);
+            return;
+        }
+        // close only this session; any other sessions the user holds stay active
+        AccessToken foundToken = this.sessions.close(tokenID);
+        audit(AuditLog.EventType.LOGOUT, (foundToken != null) ? foundToken.getUserID() : null, tokenID, PermissionRegistry.UNREGISTERED);
+        if (foundToken != null) {
+            long now = System.currentTimeMillis();
+            foundToken.setLastUpdatedAt(now);
+            foundToken.setExpiresAt(now);
         }
     }
 
@@ -299,23 +540,23 @@ public class AuthenticationServiceAPI implements IAuthenticationServiceAPI {
      * the Permission.  Looks up the AccessToken's owning User, and inspects their Entitlements to confirm whether
      * or not the user has the corresponding Permission.
      *
+     * The ID may also name a Role, in which case the user must hold that Role, directly or through another Role.
+     *
      * @param tokenID       the id of the AccessToken to check
-     * @param permissionID  the id of the Permission to check the user for
-     * @return true if the user has the Permission, false otherwise
+     * @param permissionID  the id of the Permission or Role to check the user for
+     * @return true if the user has the Permission or Role, false otherwise
      */
     @Override
     public boolean mayAccess(String tokenID, String permissionID) {
-        User foundUser = getUserByAccessTokenID(tokenID);
-        if (foundUser != null) {
-            // if the user HAS an access token currently but it's expired, throw an exception and have them login again
-            AccessToken foundToken = foundUser.getAccessToken();
-            if (foundToken != null && !foundToken.getExpirationTime().after(new Date())) {
-                return false;
-            } else {
-                return foundUser.hasPermission(permissionID);
-            }
+        int ordinal = PermissionRegistry.getInstance().lookup(permissionID);
+        if (ordinal != PermissionRegistry.UNREGISTERED) {
+            return mayAccess(tokenID, ordinal);
         }
-        return false;
+        // not a Permission, so it may be the ID of a Role
+        User foundUser = (tokenID == null) ? null : getTokenUser(tokenID);
+        boolean allowed = foundUser != null && foundUser.hasRole(permissionID);
+        audit(allowed ? AuditLog.EventType.ACCESS_GRANTED : AuditLog.EventType.ACCESS_DENIED, foundUser, tokenID, PermissionRegistry.UNREGISTERED);
+        return allowed;
     }
 
     /**
@@ -329,7 +570,107 @@ public class AuthenticationServiceAPI implements IAuthenticationServiceAPI {
      */
     @Override
     public boolean mayAccess(String tokenID, PermissionType permissionType) {
-        return mayAccess(tokenID, permissionType.getPermissionName());
+        // fast path: the PermissionType maps straight to its ordinal, so no Permission ID is compared
+        return mayAccess(tokenID, permissionType.getOrdinal());
+    }
+
+    /**
+     * Checks a set of Permissions for the User that owns the AccessToken corresponding to the passed tokenID in a
+     * single call.  The token is resolved, its expiry checked, and the User's effective Permissions looked up, once
+     * for the whole set; each PermissionType is then a single bit test.
+     *
+     * @param tokenID          the id of the AccessToken to check
+     * @param permissionTypes  the PermissionTypes to check the user for
+     * @return the subset of permissionTypes that the user has; empty if the token is not valid
+     */
+    @Override
+    public EnumSet<PermissionType> authorize(String tokenID, EnumSet<PermissionType> permissionTypes) {
+        EnumSet<PermissionType> granted = EnumSet.noneOf(PermissionType.class);
+        if (tokenID == null || permissionTypes == null || permissionTypes.isEmpty()) {
+            return granted;
+        }
+        User foundUser = getTokenUser(tokenID);
+        if (foundUser == null) {
+            return granted;
+        }
+        BitSet ordinals = foundUser.getEffectivePermissions();
+        for (PermissionType permissionType : permissionTypes) {
+            boolean allowed = ordinals.get(permissionType.getOrdinal());
+            if (allowed) {
+                granted.add(permissionType);
+            }
+            audit(allowed ? AuditLog.EventType.ACCESS_GRANTED : AuditLog.EventType.ACCESS_DENIED, foundUser, tokenID, permissionType.getOrdinal());
+        }
+        return granted;
+    }
+
+    /**
+     * Removes every session whose AccessToken has expired, and forgets revoked signed tokens that have since expired.
+     * Called on every login, and at most once per tick from token lookups, so that the wheels keep advancing while
+     * no one logs in; the cost is O(1) per expired token, regardless of how many sessions are active.
+     *
+     * @return  the number of sessions that were expired
+     */
+    public int expireSessions() {
+        return expireSessions(System.currentTimeMillis());
+    }
+
+    /**
+     * Helper method that sweeps expired sessions and revocations if a tick has passed since the last sweep from a
+     * token lookup.  Costs a single read on the lookup path otherwise, and only one of several concurrent lookups
+     * does the sweep.
+     *
+     * @param now  the current time, in milliseconds since the epoch
+     */
+    private void expireSessionsIfDue(long now) {
+        long due = this.nextExpirySweep.get();
+        if (now >= due && this.nextExpirySweep.compareAndSet(due, now + EXPIRY_SWEEP_MILLIS)) {
+            expireSessions(now);
+        }
+    }
+
+    /**
+     * Helper method that removes every expired session and revocation as of the passed time.
+     *
+     * @param now  the current time, in milliseconds since the epoch
+     * @return  the number of sessions that were expired
+     */
+    private int expireSessions(long now) {
+        List<String> expiredTokenIDs = this.sessions.expireSessions(now);
+        // revoked signed tokens no longer need to be remembered once they have expired on their own
+        for (String tokenID : this.revocationWheel.advance(now)) {
+            this.revokedTokens.remove(tokenID);
+        }
+        return expiredTokenIDs.size();
+    }
+
+    /**
+     * Switches logins to issuing signed, stateless AccessTokens.  Signed tokens are validated by checking their
+     * HMAC signature and expiration rather than by looking up a session, and are revoked on logout by adding them to
+     * a revocation list until they expire.  Per-user session caps do not apply to signed tokens.  Tokens issued
+     * before the switch remain valid.
+     *
+     * @param key  the secret key used to sign tokens; should be at least 32 bytes
+     */
+    public void enableSignedTokens(byte[] key) {
+        this.signedTokens = new SignedTokenCodec(key);
+    }
+
+    /**
+     * Switches logins back to issuing stateful session AccessTokens.  Signed tokens that were already issued can no
+     * longer be validated, so their holders must login again.
+     */
+    public void disableSignedTokens() {
+        this.signedTokens = null;
+    }
+
+    /**
+     * Returns the number of signed AccessTokens that have been logged out but have not yet expired.
+     *
+     * @return  the size of the revocation list
+     */
+    public int getRevokedTokenCount() {
+        return this.revokedTokens.size();
     }
 
     /**
@@ -341,38 +682,98 @@ public class AuthenticationServiceAPI implements IAuthenticationServiceAPI {
      */
     @Override
     public String getInventory() {
-        AuthenticationVisitor av = new AuthenticationVisitor();
-
-        // get counts of how many services and users, and how many distinct Permissions/Roles
-        int numServices = this.services.size();
-        int numUsers = this.users.size();
-        int numEntitlements = this.entitlements.size();
-
         StringBuilder inventory = new StringBuilder();
-        inventory.append("Authentication Service API Inventory\n------------------------------------\n\n");
-        inventory.append(String.format("There are [%d] registered Users.  They are:\n",numUsers));
-        for (User u : users) {
-            inventory.append( u.acceptVisitor(av) );
+        try {
+            writeInventory(inventory, EnumSet.allOf(InventorySection.class), 0, Integer.MAX_VALUE);
         }
-
-        inventory.append("\n");
-        inventory.append(String.format("There are [%d] defined Services.  They are:\n",numServices));
-        for (Service s : services) {
-            inventory.append( s.acceptVisitor(av) );
+        catch (IOException ioe) {
+            // a StringBuilder never throws
         }
+        return inventory.toString();
+    }
 
-        inventory.append("\n");
-        inventory.append(String.format("There are [%d] defined Entitlements (Roles or Permissions).  They are:\n",numEntitlements));
-        for (Entitlement e : entitlements) {
-            inventory.append( e.acceptVisitor(av) );
-        }
+    /**
+     * Writes the Authentication catalog inventory to the Appendable as it is produced, rather than building it up as
+     * a single String, so that the inventory of a large catalog can be exported in constant memory.  Only the
+     * selected sections are written, and within each section only the requested page of items; each section's
+     * heading still gives the total number of items it holds.  Pages are consistent from one call to the next as
+     * long as the catalog is not changed in between.
+     *
+     * @param out       where to write the inventory, such as a Writer
+     * @param sections  the sections of the inventory to write
+     * @param offset    the number of items to skip at the start of each section
+     * @param limit     the greatest number of items to write in each section
+     * @throws IOException  if writing to out fails
+     */
+    @Override
+    public void writeInventory(Appendable out, EnumSet<InventorySection> sections, int offset, int limit) throws IOException {
+        AuthenticationVisitor av = new AuthenticationVisitor();
 
-        return inventory.toString();
+        out.append("Authentication Service API Inventory\n------------------------------------\n\n");
+        boolean first = true;
+        if (sections.contains(InventorySection.USERS)) {
+            out.append("There are [").append(Integer.toString(this.usersByID.size())).append("] registered Users.  They are:\n");
+            writePage(av, this.usersByID.values().iterator(), out, offset, limit);
+            first = false;
+        }
+        if (sections.contains(InventorySection.SERVICES)) {
+            if (!first) {
+                out.append("\n");
+            }
+            out.append("There are [").append(Integer.toString(this.servicesByID.size())).append("] defined Services.  They are:\n");
+            writePage(av, this.servicesByID.values().iterator(), out, offset, limit);
+            first = false;
+        }
+        if (sections.contains(InventorySection.ENTITLEMENTS)) {
+            if (!first) {
+                out.append("\n");
+            }
+            out.append("There are [").append(Integer.toString(this.entitlementsByID.size())).append("] defined Entitlements (Roles or Permissions).  They are:\n");
+            writePage(av, this.entitlementsByID.values().iterator(), out, offset, limit);
+        }
     }
 
 
     /* begin region: Private helper methods */
 
+    /**
+     * Helper method to write one page of a section of the inventory, skipping the items before the page without
+     * rendering them.
+     *
+     * @param av      the visitor that writes each item
+     * @param items   the items of the section
+     * @param out     where to write the items
+     * @param offset  the number of items to skip
+     * @param limit   the greatest number of items to write
+     * @throws IOException  if writing to out fails
+     */
+    private static void writePage(AuthenticationVisitor av, Iterator<?> items, Appendable out, int offset, int limit) throws IOException {
+        for (int skipped = 0; skipped < offset && items.hasNext(); skipped++) {
+            items.next();
+        }
+        for (int written = 0; written < limit && items.hasNext(); written++) {
+            av.write(items.next(), out);
+        }
+    }
+
+    /**
+     * Helper method to add a User to the catalog and index them by ID and by every username in their Credentials.
+     * If a User with the same ID is already registered, the existing User is kept.
+     *
+     * @param user  the user to register
+     */
+    private void registerUser(User user) {
+        if (user == null || user.getID() == null) {
+            return;
+        }
+        User existing = this.usersByID.putIfAbsent(user.getID(), user);
+        if (existing == null) {
+            for (Credentials credentials : user.getCredentials()) {
+                this.usersByUsername.putIfAbsent(credentials.getUsername(), user);
+            }
+        }
+    }
+
     /**
      * Helper method to retrieve a User by their ID.
      *
@@ -380,12 +781,10 @@ public class AuthenticationServiceAPI implements IAuthenticationServiceAPI {
      * @return  the found user
      */
     private User getUserByUserID(String userID) {
-        for (User user : users) {
-            if (user.getID().equals(userID) ) {
-                return user;
-            }
+        if (userID == null) {
+            return null;
         }
-        return null;
+        return this.usersByID.get(userID);
     }
 
     /**
@@ -395,30 +794,168 @@ public class AuthenticationServiceAPI implements IAuthenticationServiceAPI {
      * @return  the found user
      */
     private User getUserByUsername(String username) {
-        for (User user : users) {
-            for (Credentials credentials : user.getCredentials()) {
-                if ( credentials.getUsername().equals(username)) {
-                    return user;
-                }
-            }
+        if (username == null) {
+            return null;
         }
-        return null;
+        return this.usersByUsername.get(username);
     }
 
     /**
-     * Helper method to retrieve a User by the id of their AccessToken
+     * Helper method that checks whether the owner of the AccessToken holds the Permission with the passed ordinal.
+     * Resolves the session and tests the Permission's bit against the owning User.
      *
-     * @param tokenID  the id of the AccessToken that the belongs to the user
-     * @return  the found user
+     * @param tokenID  the id of the AccessToken to check
+     * @param ordinal  the ordinal of the Permission to check the user for
+     * @return  true if the user has the Permission, false otherwise
      */
-    private User getUserByAccessTokenID(String tokenID) {
-        for (User user : users) {
-            AccessToken token = user.getAccessToken();
-            if (token != null && token.getId().equals(tokenID)) {
-                return user;
-            }
+    private boolean mayAccess(String tokenID, int ordinal) {
+        User foundUser = (tokenID == null || ordinal == PermissionRegistry.UNREGISTERED) ? null : getTokenUser(tokenID);
+        boolean allowed = foundUser != null && foundUser.hasPermission(ordinal);
+        audit(allowed ? AuditLog.EventType.ACCESS_GRANTED : AuditLog.EventType.ACCESS_DENIED, foundUser, tokenID, ordinal);
+        return allowed;
+    }
+
+    /**
+     * Helper method to record an event in the audit log, if auditing is on.  Never blocks on I/O or allocates,
+     * unless the audit log was configured to make publishers wait when it is full.
+     *
+     * @param eventType          what happened
+     * @param subject            the username for login events, otherwise the ID of the User the token resolved to;
+     *                           null if it resolved to none
+     * @param tokenID            the id of the AccessToken involved, which the audit log records only as a fingerprint;
+     *                           null if there was none
+     * @param permissionOrdinal  the ordinal of the Permission checked, or PermissionRegistry.UNREGISTERED
+     */
+    private void audit(AuditLog.EventType eventType, String subject, String tokenID, int permissionOrdinal) {
+        AuditLog log = this.auditLog;
+        if (log != null) {
+            log.publish(eventType, subject, tokenID, permissionOrdinal);
+        }
+    }
+
+    /**
+     * Helper method to record an access decision in the audit log, if auditing is on, against the User that the
+     * AccessToken resolved to.
+     *
+     * @param eventType          what happened
+     * @param foundUser          the User that owns the token, or null if the token is not valid
+     * @param tokenID            the id of the AccessToken that was checked
+     * @param permissionOrdinal  the ordinal of the Permission checked, or PermissionRegistry.UNREGISTERED
+     */
+    private void audit(AuditLog.EventType eventType, User foundUser, String tokenID, int permissionOrdinal) {
+        audit(eventType, (foundUser != null) ? foundUser.getID() : null, tokenID, permissionOrdinal);
+    }
+
+    /**
+     * Helper method to retrieve the User that owns an AccessToken, whether it is a signed token or belongs to a
+     * session, provided the token is still valid.
+     *
+     * @param tokenID  the id of the AccessToken
+     * @return  the found user, or null if the token is not valid
+     */
+    private User getTokenUser(String tokenID) {
+        if (SignedTokenCodec.isSigned(tokenID)) {
+            return getSignedTokenUser(tokenID);
+        }
+        SessionStore.Session session = getActiveSession(tokenID);
+        return (session != null) ? session.getUser() : null;
+    }
+
+    /**
+     * Helper method to retrieve the User that owns a signed AccessToken, provided the signature is valid, the token
+     * has not expired or been logged out, and the User's Entitlements have not changed since it was issued.  Takes no
+     * locks and touches no session state.
+     *
+     * @param tokenID  the id of the signed AccessToken
+     * @return  the found user, or null if the token is not valid
+     */
+    private User getSignedTokenUser(String tokenID) {
+        SignedTokenCodec codec = this.signedTokens;
+        if (codec == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        expireSessionsIfDue(now);
+        SignedTokenCodec.Claims claims = codec.verify(tokenID, now);
+        if (claims == null || this.revokedTokens.containsKey(tokenID)) {
+            return null;
+        }
+        User foundUser = this.usersByID.get(claims.getUserID());
+        // the token vouches only for the permissions the user had at login; once they change, the user must login again
+        if (foundUser == null || foundUser.getPermissionsVersion() != claims.getPermissionsVersion()) {
+            return null;
+        }
+        return foundUser;
+    }
+
+    /**
+     * Helper method to log out a signed AccessToken by adding it to the revocation list until it expires.
+     *
+     * @param tokenID  the id of the signed AccessToken
+     * @return  the ID of the User that owns the token, or null if the token is not valid
+     */
+    private String revokeSignedToken(String tokenID) {
+        SignedTokenCodec codec = this.signedTokens;
+        if (codec == null) {
+            return null;
+        }
+        SignedTokenCodec.Claims claims = codec.verify(tokenID, System.currentTimeMillis());
+        if (claims == null) {
+            return null;
+        }
+        if (this.revokedTokens.putIfAbsent(tokenID, claims.getExpiresAt()) == null) {
+            this.revocationWheel.schedule(tokenID, claims.getExpiresAt());
+        }
+        return claims.getUserID();
+    }
+
+    /**
+     * Helper method to retrieve the session for the AccessToken with the passed id, provided the token has not yet
+     * expired.  Each session is checked against its own token, so the other sessions of the same user do not affect
+     * it.
+     *
+     * @param tokenID  the id of the AccessToken that belongs to the user
+     * @return  the session, or null if there is no such token or it has expired
+     */
+    private SessionStore.Session getActiveSession(String tokenID) {
+        long now = System.currentTimeMillis();
+        expireSessionsIfDue(now);
+        SessionStore.Session session = this.sessions.getSession(tokenID);
+        // if the token has expired, the user must login again
+        if (session == null || session.getToken().isExpired(now)) {
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * Helper method to add an Entitlement to the catalog, unless an Entitlement with the same ID is already defined.
+     *
+     * @param entitlement  the Role or Permission to register
+     * @return  the Entitlement now registered under the ID: either the one passed, or the one already defined;
+     *          null if the Entitlement has no ID
+     */
+    private Entitlement registerEntitlement(Entitlement entitlement) {
+        if (entitlement == null || entitlement.getID() == null) {
+            return null;
+        }
+        Entitlement existing = this.entitlementsByID.putIfAbsent(entitlement.getID(), entitlement);
+        return (existing != null) ? existing : entitlement;
+    }
+
+    /**
+     * Helper method to add a Service to the catalog, unless a Service with the same ID is already defined.
+     *
+     * @param service  the Service to register
+     * @return  the Service now registered under the ID: either the one passed, or the one already defined; null if
+     *          the Service has no ID
+     */
+    private Service registerService(Service service) {
+        if (service == null || service.getID() == null) {
+            return null;
         }
-        return null;
+        Service existing = this.servicesByID.putIfAbsent(service.getID(), service);
+        return (existing != null) ? existing : service;
     }
 
     /**
@@ -428,11 +965,10 @@ public class AuthenticationServiceAPI implements IAuthenticationServiceAPI {
      * @return  the found Entitlement
      */
     private Entitlement getEntitlementById(String entitlementId) {
-        for (Entitlement e : this.entitlements) {
-            if (e.getID().equals(entitlementId))
-                return e;
+        if (entitlementId == null) {
+            return null;
         }
-        return null;
+        return this.entitlementsByID.get(entitlementId);
     }
 
     /**
@@ -442,11 +978,10 @@ public class AuthenticationServiceAPI implements IAuthenticationServiceAPI {
      * @return  the found Service
      */
     private Service getServiceById(String serviceId) {
-        for (Service s : this.services) {
-            if (s.getID().equals(serviceId))
-                return s;
+        if (serviceId == null) {
+            return null;
         }
-        return null;
+        return this.servicesByID.get(serviceId);
     }
 
     /* end region: Private helper methods */
@@ -1,5 +1,7 @@
 package cscie97.asn4.ecommerce.authentication;
 
+import java.io.IOException;
+
 /**
  * Used to aid in building up a printable inventory of the
  * {@link cscie97.asn4.ecommerce.authentication.IAuthenticationServiceAPI} to list out all the
@@ -9,6 +11,10 @@ package cscie97.asn4.ecommerce.authentication;
  * This class is a primary actor in the Visitor pattern usage for building up a printable inventory of Authentication
  * items.
  *
+ * Each visit method has a matching write method that appends the same text directly to an
+ * {@link java.lang.Appendable}, such as a {@link java.io.Writer}, piece by piece rather than building an intermediate
+ * String, so that an inventory of any size can be streamed out in constant memory.
+ *
  * @author David Killeffer &lt;rayden7@gmail.com&gt;
  * @version 1.0
  * @see cscie97.asn4.ecommerce.authentication.Service
@@ -20,16 +26,145 @@ package cscie97.asn4.ecommerce.authentication;
 public class AuthenticationVisitor implements IAuthenticationVisitor {
 
     /**
-     * Helper method to retrieve the printable properties of all classes that inherit from
+     * Helper method to write the printable properties of all classes that inherit from
      * {@link cscie97.asn4.ecommerce.authentication.Item}.
      *
      * @param item  an object that inherits from Item so has shared properties
-     * @return  a string representation of the shared Item properties
+     * @param out   where to write the shared Item properties
+     * @throws IOException  if writing to out fails
+     */
+    private void writeItemProperties(Item item, Appendable out) throws IOException {
+        out.append("ID: [").append(item.getID()).append("] Name: [").append(item.getName()).append("]");
+    }
+
+    /**
+     * Helper method to write one line per child of a Role, listing each child Role or Permission.
+     *
+     * @param role  the Role whose children to write
+     * @param out   where to write the children
+     * @throws IOException  if writing to out fails
+     */
+    private void writeChildren(Role role, Appendable out) throws IOException {
+        RoleIterator iterator = role.getIterator();
+        if (iterator.hasNext()) {
+            out.append("\n\t\tChildren:");
+        }
+        while ( iterator.hasNext() ) {
+            Entitlement entitlementChild = iterator.next();
+            String childType = null;
+            if (entitlementChild instanceof Role) {
+                childType = "Role";
+            } else if (entitlementChild instanceof Permission) {
+                childType = "Permission";
+            }
+            out.append("\n\t\t\t[").append(childType).append("] ID: [").append(entitlementChild.getID())
+               .append("] Name: [").append(entitlementChild.getName()).append("]");
+        }
+    }
+
+    /**
+     * Writes the properties of an {@link cscie97.asn4.ecommerce.authentication.Entitlement}, including the children
+     * of {@link cscie97.asn4.ecommerce.authentication.Role}s.
+     *
+     * @param entitlement  either a Role or Permission to write the properties of
+     * @param out          where to write the properties
+     * @throws IOException  if writing to out fails
+     */
+    public void writeEntitlement(Entitlement entitlement, Appendable out) throws IOException {
+        String type = null;
+        if (entitlement instanceof Role) {
+            type = "Role";
+        } else if (entitlement instanceof Permission) {
+            type = "Permission";
+        }
+        out.append("\t[").append(type).append("]: ");
+        writeItemProperties(entitlement, out);
+        out.append(" ");
+        if (entitlement instanceof Role) {
+            writeChildren((Role) entitlement, out);
+        }
+        out.append("\n");
+    }
+
+    /**
+     * Writes the properties of a {@link cscie97.asn4.ecommerce.authentication.Permission}.
+     *
+     * @param permission  a Permission to write the properties of
+     * @param out         where to write the properties
+     * @throws IOException  if writing to out fails
+     */
+    public void writePermission(Permission permission, Appendable out) throws IOException {
+        out.append("\t[Permission]: ");
+        writeItemProperties(permission, out);
+        out.append(" \n");
+    }
+
+    /**
+     * Writes the properties of a {@link cscie97.asn4.ecommerce.authentication.Role}, including its children.
+     *
+     * @param role  a Role to write the properties of
+     * @param out   where to write the properties
+     * @throws IOException  if writing to out fails
+     */
+    public void writeRole(Role role, Appendable out) throws IOException {
+        out.append("\t[Role]: ");
+        writeItemProperties(role, out);
+        out.append(" ");
+        writeChildren(role, out);
+        out.append("\n");
+    }
+
+    /**
+     * Writes the properties of a {@link cscie97.asn4.ecommerce.authentication.Service}.
+     *
+     * @param service  the Service to write the properties of
+     * @param out      where to write the properties
+     * @throws IOException  if writing to out fails
      */
-    private String getItemProperties(Item item) {
-        String id = item.getID();
-        String name = item.getName();
-        return String.format("ID: [%s] Name: [%s]", id, name);
+    public void writeService(Service service, Appendable out) throws IOException {
+        out.append("\t[Service]: ");
+        writeItemProperties(service, out);
+        out.append("\n");
+    }
+
+    /**
+     * Writes the properties of a {@link cscie97.asn4.ecommerce.authentication.User}.
+     *
+     * @param user  the User to write the properties of
+     * @param out   where to write the properties
+     * @throws IOException  if writing to out fails
+     */
+    public void writeUser(User user, Appendable out) throws IOException {
+        out.append("\t[User]: ");
+        writeItemProperties(user, out);
+        out.append("\n");
+    }
+
+    /**
+     * Calls the appropriate write* method based on the object type passed.
+     *
+     * @param item  an item that is visitable from the Authentication Service, such as User, Service, Role, or Permission
+     * @param out   where to write the properties
+     * @return  true if the item was written, false if it is not a visitable type
+     * @throws IOException  if writing to out fails
+     */
+    public boolean write(Object item, Appendable out) throws IOException {
+        if (item instanceof Service) {
+            writeService((Service)item, out);
+        }
+        else if (item instanceof Role) {
+            writeRole((Role)item, out);
+        }
+        else if (item instanceof Permission) {
+            writePermission((Permission)item, out);
+        }
+        else if (item instanceof User) {
+            writeUser((User)item, out);
+        }
+        else {
+            return false;
+        }
+        return true;
     }
 
     /**
@@ -44,28 +179,14 @@ public class AuthenticationVisitor implements IAuthenticationVisitor {
      */
     @Override
     public String visitEntitlement(Entitlement entitlement) {
-        String type = null;
-        StringBuilder extra = new StringBuilder();
-        if (entitlement instanceof Role) {
-            type = "Role";
-            RoleIterator iterator = ((Role)entitlement).getIterator();
-            if (iterator.hasNext()) {
-                extra.append(String.format("\n\t\tChildren:"));
-            }
-            while ( iterator.hasNext() ) {
-                Entitlement entitlementChild = iterator.next();
-                String childType = null;
-                if (entitlementChild instanceof Role) {
-                    childType = "Role";
-                } else if (entitlementChild instanceof Permission) {
-                    childType = "Permission";
-                }
-                extra.append(String.format("\n\t\t\t[%s] ID: [%s] Name: [%s]", childType, entitlementChild.getID(), entitlementChild.getName()));
-            }
-        } else if (entitlement instanceof Permission) {
-            type = "Permission";
+        StringBuilder out = new StringBuilder();
+        try {
+            writeEntitlement(entitlement, out);
         }
-        return String.format("\t[%s]: %s %s\n", type, getItemProperties(entitlement), extra.toString());
+        catch (IOException ioe) {
+            // a StringBuilder never throws
+        }
+        return out.toString();
     }
 
     /**
@@ -77,9 +198,7 @@ public class AuthenticationVisitor implements IAuthenticationVisitor {
      */
     @Override
     public String visitPermission(Permission permission) {
-        String type = "Permission";
-        StringBuilder extra = new StringBuilder();
-        return String.format("\t[%s]: %s %s\n", type, getItemProperties(permission), extra.toString());
+        return visit(permission);
     }
 
     /**
@@ -93,23 +212,7 @@ public class AuthenticationVisitor implements IAuthenticationVisitor {
      */
     @Override
     public String visitRole(Role role) {
-        String type = "Role";
-        StringBuilder extra = new StringBuilder();
-        RoleIterator iterator = role.getIterator();
-        if (iterator.hasNext()) {
-            extra.append(String.format("\n\t\tChildren:"));
-        }
-        while ( iterator.hasNext() ) {
-            Entitlement entitlementChild = iterator.next();
-            String childType = null;
-            if (entitlementChild instanceof Role) {
-                childType = "Role";
-            } else if (entitlementChild instanceof Permission) {
-                childType = "Permission";
-            }
-            extra.append(String.format("\n\t\t\t[%s] ID: [%s] Name: [%s]", childType, entitlementChild.getID(), entitlementChild.getName()));
-        }
-        return String.format("\t[%s]: %s %s\n", type, getItemProperties(role), extra.toString());
+        return visit(role);
     }
 
     /**
@@ -121,7 +224,7 @@ public class AuthenticationVisitor implements IAuthenticationVisitor {
      */
     @Override
     public String visitService(Service service) {
-        return String.format("\t[Service]: %s\n", getItemProperties(service));
+        return visit(service);
     }
 
     /**
@@ -133,7 +236,7 @@ public class AuthenticationVisitor implements IAuthenticationVisitor {
      */
     @Override
     public String visitUser(User user) {
-        return String.format("\t[User]: %s\n", getItemProperties(user));
+        return visit(user);
     }
 
     /**
@@ -144,18 +247,15 @@ public class AuthenticationVisitor implements IAuthenticationVisitor {
      */
     @Override
     public String visit(Object item) {
-        if (item instanceof Service) {
-            return visitService((Service)item);
-        }
-        else if (item instanceof Role) {
-            return visitRole((Role)item);
-        }
-        else if (item instanceof Permission) {
-            return visitPermission((Permission)item);
+        StringBuilder out = new StringBuilder();
+        try {
+            if (!write(item, out)) {
+                return null;
+            }
         }
-        else if (item instanceof User) {
-            return visitUser((User)item);
+        catch (IOException ioe) {
+            // a StringBuilder never throws
         }
-        return null;
+        return out.toString();
     }
 }
\ No newline at end of file
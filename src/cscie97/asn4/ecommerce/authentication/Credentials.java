@@ -28,9 +28,10 @@ public class Credentials {
     private String username;
 
     /**
-     * The hashed password; used for authentication
+     * The hashed password; used for authentication.  Volatile because a successful login may replace it with a hash
+     * made with the current default parameters.
      */
-    private String passwordHash;
+    private volatile String passwordHash;
 
     /**
      * The unique salt that is applied when hashing a password; must be saved so that subsequent attempts to verify
@@ -46,18 +47,70 @@ public class Credentials {
      * @param password  the plain-text password; will be hashed and saved (the plain-text version is never saved)
      */
     public Credentials(String username, String password) {
+        this(username, password, PasswordHash.getDefaultAlgorithm(), PasswordHash.getDefaultIterations());
+    }
+
+    /**
+     * Class constructor.  Takes a username and password, hashes the password with the given PBKDF2 algorithm and
+     * iteration count, and saves the hashed version and the salt used to generate the hash.
+     *
+     * @param username    the username that is to be used
+     * @param password    the plain-text password; will be hashed and saved (the plain-text version is never saved)
+     * @param algorithm   the PBKDF2 algorithm to hash the password with, e.g. PBKDF2WithHmacSHA256
+     * @param iterations  the PBKDF2 iteration count to hash the password with
+     * @throws IllegalArgumentException  if the algorithm is not available or the iteration count is not usable, since
+     *                                   the Credentials could otherwise never be logged in with
+     */
+    public Credentials(String username, String password, String algorithm, int iterations) {
         this.username = username;
         try {
-            String hashedAndSaltedPassword = PasswordHash.createHash(password);
-            this.passwordHash = hashedAndSaltedPassword;
-            String[] parts = hashedAndSaltedPassword.split(":");
-            if (parts != null && parts.length == 3) {
-                // first part is number of pbkdf2 iterations used to compute the hash
-                this.passwordSalt = parts[1];  // second part is the salt
+            setHashedAndSaltedPassword(PasswordHash.createHash(password.toCharArray(), algorithm, iterations));
+        }
+        catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalArgumentException("password hashing algorithm [" + algorithm + "] is not available", nsae);
+        }
+        catch (InvalidKeySpecException ikse) {
+            throw new IllegalArgumentException("cannot hash a password with [" + algorithm + "] and " + iterations + " iterations", ikse);
+        }
+    }
+
+    /**
+     * Checks the password against the hashed password.  If it matches and the hash was made with parameters other
+     * than the current defaults of {@link cscie97.asn4.ecommerce.authentication.PasswordHash}, the password is
+     * hashed again with the defaults, so that stored hashes follow changes to the defaults as users log in.
+     *
+     * @param password  the plain-text password to check
+     * @return  true if the password is correct, false otherwise
+     */
+    public boolean validatePassword(String password) {
+        String currentHash = this.passwordHash;
+        if (currentHash == null) {
+            return false;
+        }
+        try {
+            if (!PasswordHash.validatePassword(password, currentHash)) {
+                return false;
+            }
+            if (PasswordHash.needsRehash(currentHash)) {
+                setHashedAndSaltedPassword(PasswordHash.createHash(password));
             }
+            return true;
         }
         catch (NoSuchAlgorithmException nsae) { }
         catch (InvalidKeySpecException ikse) { }
+        return false;
+    }
+
+    /**
+     * Saves a hash made by {@link cscie97.asn4.ecommerce.authentication.PasswordHash}, along with the salt within it.
+     *
+     * @param hashedAndSaltedPassword  the hash, of the form [algorithm:]iterations:salt:hash
+     */
+    private void setHashedAndSaltedPassword(String hashedAndSaltedPassword) {
+        String[] parts = hashedAndSaltedPassword.split(":");
+        // the salt is always second from the end, after the optional algorithm and the number of pbkdf2 iterations
+        this.passwordSalt = parts[parts.length - 2];
+        this.passwordHash = hashedAndSaltedPassword;
     }
 
     /**
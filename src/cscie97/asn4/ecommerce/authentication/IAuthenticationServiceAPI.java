@@ -1,5 +1,9 @@
 package cscie97.asn4.ecommerce.authentication;
 
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Public interface for the AuthenticaitonServiceAPI.  Administrators may use the methods here to create and
  * administer new Roles, Permissions, Services, and Users, and also define the properties on each.  Also contains
@@ -56,13 +60,16 @@ public interface IAuthenticationServiceAPI {
     public void addPermissionToService(String tokenID, String serviceID, Permission permission);
 
     /**
-     * Adds a new Permission to the catalog as a child of the Role.
+     * Adds a pre-existing Entitlement (either a Permission or another Role) to the catalog as a child of the Role.
+     * A child Role that already contains the parent Role is rejected, so the Role graph never contains a cycle.
      *
      * @param tokenID       id of the AccessToken to use for authentication to execute this method
-     * @param roleID        the pre-existing Role ID to add the Permission to
-     * @param permissionID  the pre-existing Permission ID to add as a child of the Role
+     * @param roleID        the pre-existing Role ID to add the Entitlement to
+     * @param permissionID  the pre-existing Permission or Role ID to add as a child of the Role
+     * @return  true if the Entitlement was added; false if the caller may not add Entitlements to Roles, either ID is
+     *          not defined, or the Entitlement is a Role that already contains the Role
      */
-    public void addPermissionToRole(String tokenID, String roleID, String permissionID);
+    public boolean addPermissionToRole(String tokenID, String roleID, String permissionID);
 
     /**
      * Adds a new Credential to the User.
@@ -74,6 +81,15 @@ public interface IAuthenticationServiceAPI {
      */
     public void addCredentialToUser(String tokenID, String userID, String username, String password);
 
+    /**
+     * Adds an existing Credential, whose password has already been hashed, to the User.
+     *
+     * @param tokenID      id of the AccessToken to use for authentication to execute this method
+     * @param userID       the pre-existing User ID to add the Credential to
+     * @param credentials  the Credential to add
+     */
+    public void addCredentialToUser(String tokenID, String userID, Credentials credentials);
+
     /**
      * Adds a new Entitlement (can be a Role or Permission) to the User.
      *
@@ -93,6 +109,18 @@ public interface IAuthenticationServiceAPI {
      */
     public AccessToken login(String username, String password) throws AccessDeniedException;
 
+    /**
+     * Logs a user into the AuthenticationService without blocking the caller.  Password verification runs on a
+     * dedicated, bounded pool of threads; when too many logins are already waiting, the attempt is refused at once.
+     *
+     * @param username   the username to authenticate
+     * @param password   the user's password to authenticate
+     * @return a future that completes with the AccessToken of the user, or exceptionally with an
+     *         AccessDeniedException if the credentials passed are invalid, or a RejectedExecutionException if the
+     *         login could not be admitted
+     */
+    public CompletableFuture<AccessToken> loginAsync(String username, String password);
+
     /**
      * Logs the User out that owns the AccessToken with the supplied ID.  Modifies the AccessToken to set the
      * expiration time to be now.
@@ -123,6 +151,16 @@ public interface IAuthenticationServiceAPI {
      */
     public boolean mayAccess(String tokenID, PermissionType permissionType);
 
+    /**
+     * Checks a set of Permissions for the User that owns the AccessToken corresponding to the passed tokenID in a
+     * single call.  The token is resolved, and the User's effective Permissions looked up, once for the whole set.
+     *
+     * @param tokenID          the id of the AccessToken to check
+     * @param permissionTypes  the PermissionTypes to check the user for
+     * @return the subset of permissionTypes that the user has; empty if the token is not valid
+     */
+    public EnumSet<PermissionType> authorize(String tokenID, EnumSet<PermissionType> permissionTypes);
+
     /**
      * Returns a string representation of the entire Authentication catalog, including Services,
      * Users, Roles, and Permissions.  Uses the Visitor pattern to visit each Service, User, Role, and Permission to
@@ -132,4 +170,18 @@ public interface IAuthenticationServiceAPI {
      */
     public String getInventory();
 
+    /**
+     * Writes the Authentication catalog inventory to the Appendable as it is produced, rather than building it up as
+     * a single String, so that the inventory of a large catalog can be exported in constant memory.  Only the
+     * selected sections are written, and within each section only the requested page of items; each section's
+     * heading still gives the total number of items it holds.
+     *
+     * @param out       where to write the inventory, such as a Writer
+     * @param sections  the sections of the inventory to write
+     * @param offset    the number of items to skip at the start of each section
+     * @param limit     the greatest number of items to write in each section
+     * @throws java.io.IOException  if writing to out fails
+     */
+    public void writeInventory(Appendable out, EnumSet<InventorySection> sections, int offset, int limit) throws IOException;
+
 }
\ No newline at end of file
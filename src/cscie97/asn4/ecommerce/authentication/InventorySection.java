@@ -0,0 +1,28 @@
+package cscie97.asn4.ecommerce.authentication;
+
+/**
+ * The sections of the Authentication catalog inventory, which may be selected individually when streaming the
+ * inventory with {@link IAuthenticationServiceAPI#writeInventory(Appendable, java.util.EnumSet, int, int)}.
+ *
+ * @author David Killeffer &lt;rayden7@gmail.com&gt;
+ * @version 1.0
+ * @see cscie97.asn4.ecommerce.authentication.IAuthenticationServiceAPI
+ */
+public enum InventorySection {
+
+    /**
+     * The registered {@link cscie97.asn4.ecommerce.authentication.User}s
+     */
+    USERS,
+
+    /**
+     * The defined {@link cscie97.asn4.ecommerce.authentication.Service}s
+     */
+    SERVICES,
+
+    /**
+     * The defined {@link cscie97.asn4.ecommerce.authentication.Entitlement}s, both Roles and Permissions
+     */
+    ENTITLEMENTS
+
+}
@@ -0,0 +1,167 @@
+package cscie97.asn4.ecommerce.authentication;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how often logins may be attempted, both for each username and across the whole
+ * {@link cscie97.asn4.ecommerce.authentication.AuthenticationServiceAPI}, using
+ * {@link cscie97.asn4.ecommerce.authentication.TokenBucket}s.  Attempts are checked before any password is hashed, so
+ * a burst of logins for one account, or a storm across many, is refused cheaply instead of consuming CPU.
+ *
+ * Buckets for usernames that have refilled completely carry no information, so they are swept out whenever the number
+ * of tracked usernames grows past a threshold.  A bucket is retired before it is removed, and a login that finds its
+ * bucket retired starts again with a new one, so sweeping never lets an attempt go uncounted.
+ *
+ * @author David Killeffer &lt;rayden7@gmail.com&gt;
+ * @version 1.0
+ * @see cscie97.asn4.ecommerce.authentication.TokenBucket
+ * @see cscie97.asn4.ecommerce.authentication.LoginThrottledException
+ */
+public class LoginThrottle {
+
+    /**
+     * Number of tracked usernames past which full buckets are swept out
+     */
+    private static final int SWEEP_THRESHOLD = 10000;
+
+    private final int userCapacity;
+
+    private final double userTokensPerSecond;
+
+    /**
+     * Bucket shared by every login attempt
+     */
+    private final TokenBucket globalBucket;
+
+    /**
+     * Bucket for each username with recent login attempts
+     */
+    private final ConcurrentMap<String, TokenBucket> bucketsByUsername = new ConcurrentHashMap<String, TokenBucket>();
+
+    /**
+     * Buckets created since the last sweep
+     */
+    private final AtomicInteger createdSinceSweep = new AtomicInteger();
+
+    /**
+     * Attempts refused because their username had no tokens left
+     */
+    private final AtomicLong userRejectionCount = new AtomicLong();
+
+    /**
+     * Attempts refused because the service as a whole had no tokens left
+     */
+    private final AtomicLong globalRejectionCount = new AtomicLong();
+
+    /**
+     * Class constructor.
+     *
+     * @param userCapacity           the largest burst of logins permitted for one username
+     * @param userTokensPerSecond    the sustained rate of logins permitted for one username
+     * @param globalCapacity         the largest burst of logins permitted across all usernames
+     * @param globalTokensPerSecond  the sustained rate of logins permitted across all usernames
+     */
+    public LoginThrottle(int userCapacity, double userTokensPerSecond, int globalCapacity, double globalTokensPerSecond) {
+        // build one bucket up front so bad per-user limits fail here rather than on the first login
+        new TokenBucket(userCapacity, userTokensPerSecond);
+        this.userCapacity = userCapacity;
+        this.userTokensPerSecond = userTokensPerSecond;
+        this.globalBucket = new TokenBucket(globalCapacity, globalTokensPerSecond);
+    }
+
+    /**
+     * Checks whether a login attempt for the username may go ahead, taking a token from both the username's bucket
+     * and the global bucket if so.  The username's bucket is checked first, so that a storm against one account is
+     * refused without using up the capacity shared by everyone else.  If the global bucket then refuses the attempt,
+     * the username's token is given back, so that load across the service does not lock out its users.
+     *
+     * @param username  the username attempting to login
+     * @throws LoginThrottledException  if either bucket is empty
+     */
+    public void acquire(String username) throws LoginThrottledException {
+        // a null username still counts against a bucket, rather than bypassing the limit
+        String key = (username != null) ? username : "";
+        long now = System.nanoTime();
+        while (true) {
+            TokenBucket bucket = bucketFor(key, now);
+            if (bucket.tryAcquire(now)) {
+                if (!this.globalBucket.tryAcquire(now)) {
+                    bucket.refund();
+                    this.globalRejectionCount.incrementAndGet();
+                    throw new LoginThrottledException(username);
+                }
+                return;
+            }
+            if (!bucket.isRetired()) {
+                this.userRejectionCount.incrementAndGet();
+                throw new LoginThrottledException(username);
+            }
+            // swept while idle since we looked it up, so it held no recent attempts; start again with a new bucket
+            this.bucketsByUsername.remove(key, bucket);
+        }
+    }
+
+    /**
+     * Returns how many login attempts were refused because their username had made too many recent attempts.
+     *
+     * @return  the number of per-username rejections
+     */
+    public long getUserRejectionCount() {
+        return this.userRejectionCount.get();
+    }
+
+    /**
+     * Returns how many login attempts were refused because too many attempts were made across the whole service.
+     *
+     * @return  the number of global rejections
+     */
+    public long getGlobalRejectionCount() {
+        return this.globalRejectionCount.get();
+    }
+
+    /**
+     * Returns the number of usernames currently being tracked.
+     *
+     * @return  the number of per-username buckets
+     */
+    public int getTrackedUsernameCount() {
+        return this.bucketsByUsername.size();
+    }
+
+    private TokenBucket bucketFor(String key, long now) {
+        TokenBucket bucket = this.bucketsByUsername.get(key);
+        if (bucket == null) {
+            TokenBucket created = new TokenBucket(this.userCapacity, this.userTokensPerSecond);
+            bucket = this.bucketsByUsername.putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+                if (this.bucketsByUsername.size() > SWEEP_THRESHOLD && this.createdSinceSweep.incrementAndGet() >= SWEEP_THRESHOLD / 2) {
+                    sweep(now);
+                }
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * Drops the buckets of usernames that have not attempted a login recently enough to be limited.  Each is retired
+     * first, so that a login that has already looked it up cannot take a token from it after it is dropped, and is
+     * only removed if it is still the bucket mapped to its username.
+     *
+     * @param now  the current time, from {@link System#nanoTime()}
+     */
+    private void sweep(long now) {
+        this.createdSinceSweep.set(0);
+        for (Map.Entry<String, TokenBucket> entry : this.bucketsByUsername.entrySet()) {
+            TokenBucket bucket = entry.getValue();
+            if (bucket.retireIfFull(now)) {
+                this.bucketsByUsername.remove(entry.getKey(), bucket);
+            }
+        }
+    }
+
+}
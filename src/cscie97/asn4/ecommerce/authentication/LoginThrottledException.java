@@ -0,0 +1,36 @@
+package cscie97.asn4.ecommerce.authentication;
+
+/**
+ * Thrown by {@link cscie97.asn4.ecommerce.authentication.IAuthenticationServiceAPI#login(String, String)} when a login
+ * is refused because too many attempts have been made recently, either for the username or across the whole service.
+ * No password is checked.  Since throttled logins are expected in bulk during a login storm, the exception does not
+ * capture a stack trace, keeping each refusal cheap.
+ *
+ * @author David Killeffer &lt;rayden7@gmail.com&gt;
+ * @version 1.0
+ * @see cscie97.asn4.ecommerce.authentication.LoginThrottle
+ */
+public class LoginThrottledException extends AccessDeniedException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Class constructor.
+     *
+     * @param username  the username whose login was refused
+     */
+    public LoginThrottledException(String username) {
+        super(username, "", 0, "", null);
+    }
+
+    /**
+     * Skips capturing the stack trace, which would otherwise dominate the cost of refusing a login.
+     *
+     * @return  this exception
+     */
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+
+}
@@ -31,9 +31,10 @@ package cscie97.asn4.ecommerce.authentication;
 import java.security.SecureRandom;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.SecretKeyFactory;
-import java.math.BigInteger;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * PBKDF2 salted password hashing.
@@ -42,6 +43,10 @@ import java.security.spec.InvalidKeySpecException;
  *
  * https://crackstation.net/hashing-security.htm#javasourcecode
  *
+ * Hashes made with the default algorithm have the form iterations:salt:hash.  Hashes made with any other algorithm
+ * name it first, as algorithm:iterations:salt:hash, so each stored hash carries the parameters needed to verify it
+ * and the defaults may be changed without breaking existing hashes.
+ *
  */
 public class PasswordHash
 {
@@ -56,6 +61,58 @@ public class PasswordHash
     public static final int SALT_INDEX = 1;
     public static final int PBKDF2_INDEX = 2;
 
+    // Parameters used for new hashes; existing hashes whose parameters differ are reported by needsRehash.
+    private static volatile String defaultAlgorithm = PBKDF2_ALGORITHM;
+    private static volatile int defaultIterations = PBKDF2_ITERATIONS;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // SecretKeyFactory instances are not thread-safe and are costly to look up, so each thread keeps its own.
+    private static final ThreadLocal<Map<String, SecretKeyFactory>> FACTORIES =
+        new ThreadLocal<Map<String, SecretKeyFactory>>()
+        {
+            @Override
+            protected Map<String, SecretKeyFactory> initialValue()
+            {
+                return new HashMap<String, SecretKeyFactory>();
+            }
+        };
+
+    /**
+     * Sets the algorithm and iteration count used for new hashes.
+     *
+     * @param   algorithm   the PBKDF2 algorithm, e.g. PBKDF2WithHmacSHA256
+     * @param   iterations  the iteration count (slowness factor)
+     */
+    public static void setDefaultParameters(String algorithm, int iterations)
+        throws NoSuchAlgorithmException
+    {
+        // fail now rather than on the next hash if the algorithm is not available
+        factory(algorithm);
+        defaultAlgorithm = algorithm;
+        defaultIterations = iterations;
+    }
+
+    /**
+     * Returns the algorithm used for new hashes.
+     *
+     * @return              the default PBKDF2 algorithm
+     */
+    public static String getDefaultAlgorithm()
+    {
+        return defaultAlgorithm;
+    }
+
+    /**
+     * Returns the iteration count used for new hashes.
+     *
+     * @return              the default iteration count
+     */
+    public static int getDefaultIterations()
+    {
+        return defaultIterations;
+    }
+
     /**
      * Returns a salted PBKDF2 hash of the password.
      *
@@ -76,6 +133,20 @@ public class PasswordHash
      */
     public static String createHash(char[] password)
         throws NoSuchAlgorithmException, InvalidKeySpecException
+    {
+        return createHash(password, defaultAlgorithm, defaultIterations);
+    }
+
+    /**
+     * Returns a salted PBKDF2 hash of the password, using the given algorithm and iteration count.
+     *
+     * @param   password    the password to hash
+     * @param   algorithm   the PBKDF2 algorithm, e.g. PBKDF2WithHmacSHA256
+     * @param   iterations  the iteration count (slowness factor)
+     * @return              a salted PBKDF2 hash of the password
+     */
+    public static String createHash(char[] password, String algorithm, int iterations)
+        throws NoSuchAlgorithmException, InvalidKeySpecException
     {
         // Generate a random salt
         SecureRandom random = new SecureRandom();
@@ -83,9 +154,10 @@ public class PasswordHash
         random.nextBytes(salt);
 
         // Hash the password
-        byte[] hash = pbkdf2(password, salt, PBKDF2_ITERATIONS, HASH_BYTE_SIZE);
-        // format iterations:salt:hash
-        return PBKDF2_ITERATIONS + ":" + toHex(salt) + ":" +  toHex(hash);
+        byte[] hash = pbkdf2(password, salt, algorithm, iterations, HASH_BYTE_SIZE);
+        // format iterations:salt:hash, prefixed with the algorithm if it is not the original one
+        String encoded = iterations + ":" + toHex(salt) + ":" +  toHex(hash);
+        return PBKDF2_ALGORITHM.equals(algorithm) ? encoded : algorithm + ":" + encoded;
     }
 
     /**
@@ -113,17 +185,35 @@ public class PasswordHash
     {
         // Decode the hash into its parameters
         String[] params = correctHash.split(":");
-        int iterations = Integer.parseInt(params[ITERATION_INDEX]);
-        byte[] salt = fromHex(params[SALT_INDEX]);
-        byte[] hash = fromHex(params[PBKDF2_INDEX]);
-        // Compute the hash of the provided password, using the same salt, 
-        // iteration count, and hash length
-        byte[] testHash = pbkdf2(password, salt, iterations, hash.length);
+        int offset = params.length - 3;
+        String algorithm = (offset > 0) ? params[0] : PBKDF2_ALGORITHM;
+        int iterations = Integer.parseInt(params[offset + ITERATION_INDEX]);
+        byte[] salt = fromHex(params[offset + SALT_INDEX]);
+        byte[] hash = fromHex(params[offset + PBKDF2_INDEX]);
+        // Compute the hash of the provided password, using the same algorithm,
+        // salt, iteration count, and hash length
+        byte[] testHash = pbkdf2(password, salt, algorithm, iterations, hash.length);
         // Compare the hashes in constant time. The password is correct if
         // both hashes match.
         return slowEquals(hash, testHash);
     }
 
+    /**
+     * Checks whether a hash was made with parameters other than the current
+     * defaults, and so should be replaced the next time the password is known.
+     *
+     * @param   correctHash     the stored hash
+     * @return                  true if the hash should be recomputed, false if not
+     */
+    public static boolean needsRehash(String correctHash)
+    {
+        String[] params = correctHash.split(":");
+        int offset = params.length - 3;
+        String algorithm = (offset > 0) ? params[0] : PBKDF2_ALGORITHM;
+        return !algorithm.equals(defaultAlgorithm)
+            || Integer.parseInt(params[offset + ITERATION_INDEX]) != defaultIterations;
+    }
+
     /**
      * Compares two byte arrays in length-constant time. This comparison method
      * is used so that password hashes cannot be extracted from an on-line 
@@ -146,16 +236,42 @@ public class PasswordHash
      *
      * @param   password    the password to hash.
      * @param   salt        the salt
+     * @param   algorithm   the PBKDF2 algorithm
      * @param   iterations  the iteration count (slowness factor)
      * @param   bytes       the length of the hash to compute in bytes
      * @return              the PBDKF2 hash of the password
      */
-    private static byte[] pbkdf2(char[] password, byte[] salt, int iterations, int bytes)
+    private static byte[] pbkdf2(char[] password, byte[] salt, String algorithm, int iterations, int bytes)
         throws NoSuchAlgorithmException, InvalidKeySpecException
     {
         PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, bytes * 8);
-        SecretKeyFactory skf = SecretKeyFactory.getInstance(PBKDF2_ALGORITHM);
-        return skf.generateSecret(spec).getEncoded();
+        try
+        {
+            return factory(algorithm).generateSecret(spec).getEncoded();
+        }
+        finally
+        {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Returns this thread's SecretKeyFactory for the algorithm, creating it on first use.
+     *
+     * @param   algorithm   the PBKDF2 algorithm
+     * @return              the SecretKeyFactory for the algorithm
+     */
+    private static SecretKeyFactory factory(String algorithm)
+        throws NoSuchAlgorithmException
+    {
+        Map<String, SecretKeyFactory> factories = FACTORIES.get();
+        SecretKeyFactory skf = factories.get(algorithm);
+        if(skf == null)
+        {
+            skf = SecretKeyFactory.getInstance(algorithm);
+            factories.put(algorithm, skf);
+        }
+        return skf;
     }
 
     /**
@@ -169,7 +285,11 @@ public class PasswordHash
         byte[] binary = new byte[hex.length() / 2];
         for(int i = 0; i < binary.length; i++)
         {
-            binary[i] = (byte)Integer.parseInt(hex.substring(2*i, 2*i+2), 16);
+            int high = Character.digit(hex.charAt(2*i), 16);
+            int low = Character.digit(hex.charAt(2*i+1), 16);
+            if(high < 0 || low < 0)
+                throw new NumberFormatException("invalid hex digit in: " + hex);
+            binary[i] = (byte)((high << 4) | low);
         }
         return binary;
     }
@@ -182,13 +302,13 @@ public class PasswordHash
      */
     private static String toHex(byte[] array)
     {
-        BigInteger bi = new BigInteger(1, array);
-        String hex = bi.toString(16);
-        int paddingLength = (array.length * 2) - hex.length();
-        if(paddingLength > 0) 
-            return String.format("%0" + paddingLength + "d", 0) + hex;
-        else
-            return hex;
+        char[] hex = new char[array.length * 2];
+        for(int i = 0; i < array.length; i++)
+        {
+            hex[2*i] = HEX_DIGITS[(array[i] >> 4) & 0xf];
+            hex[2*i+1] = HEX_DIGITS[array[i] & 0xf];
+        }
+        return new String(hex);
     }
 
     /**
@@ -22,10 +22,19 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
  */
 public class Permission extends Entitlement implements IAuthenticationVisitable {
 
+    /**
+     * Dense ordinal assigned by the {@link cscie97.asn4.ecommerce.authentication.PermissionRegistry} when the ID of
+     * the Permission is set.  Deliberately has no initializer, since it is assigned by {@link Permission#setID}
+     * while the superclass constructor runs.
+     */
+    private int ordinal;
+
     /**
      * No-argument class constructor.
      */
-    public Permission() { }
+    public Permission() {
+        this.ordinal = PermissionRegistry.UNREGISTERED;
+    }
 
     /**
      * Class constructor.
@@ -49,6 +58,28 @@ public class Permission extends Entitlement implements IAuthenticationVisitable
         super(permissionType.getPermissionName(), name, description);
     }
 
+    /**
+     * Sets the unique ID for this Permission and registers it with the
+     * {@link cscie97.asn4.ecommerce.authentication.PermissionRegistry} to obtain its ordinal.
+     *
+     * @param id  the unique ID to use for the Permission
+     */
+    @Override
+    public void setID(String id) {
+        super.setID(id);
+        this.ordinal = (id != null) ? PermissionRegistry.getInstance().register(id) : PermissionRegistry.UNREGISTERED;
+    }
+
+    /**
+     * Returns the dense ordinal of this Permission, as assigned by the
+     * {@link cscie97.asn4.ecommerce.authentication.PermissionRegistry}.
+     *
+     * @return  the ordinal of the Permission, or {@link PermissionRegistry#UNREGISTERED} if no ID has been set
+     */
+    public int getOrdinal() {
+        return this.ordinal;
+    }
+
     /**
      * Accepts a visitor object for the purposes of building up an inventory of items in the AuthenticationService.
      *
@@ -0,0 +1,133 @@
+package cscie97.asn4.ecommerce.authentication;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns the IDs of {@link cscie97.asn4.ecommerce.authentication.Permission}s to small, dense integer ordinals.
+ * Ordinals are handed out in registration order starting from zero and never change once assigned, which allows the
+ * effective Permissions of a {@link cscie97.asn4.ecommerce.authentication.User} to be kept as a
+ * {@link java.util.BitSet} and checked with a single bit test instead of comparing Permission IDs as strings.
+ * Every {@link cscie97.asn4.ecommerce.authentication.PermissionType} is registered first, in declaration order, so
+ * the ordinal of a PermissionType's Permission is always the same as {@link PermissionType#ordinal()}.
+ *
+ * The PermissionRegistry is accessed as a Singleton; callers must use {@link PermissionRegistry#getInstance()} to
+ * obtain a reference to the sole instance.
+ *
+ * @author David Killeffer &lt;rayden7@gmail.com&gt;
+ * @version 1.0
+ * @see cscie97.asn4.ecommerce.authentication.Permission
+ * @see cscie97.asn4.ecommerce.authentication.User
+ */
+public class PermissionRegistry {
+
+    /**
+     * Ordinal returned when looking up a Permission ID that has never been registered
+     */
+    public static final int UNREGISTERED = -1;
+
+    /**
+     * Maps each registered Permission ID to its ordinal
+     */
+    private final ConcurrentMap<String, Integer> ordinalsByID = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * The registered Permission IDs, indexed by ordinal; replaced with a larger copy as it fills, and republished
+     * after every registration so readers need no lock
+     */
+    private volatile String[] idsByOrdinal = new String[32];
+
+    /**
+     * The ordinal that will be handed to the next newly registered Permission ID
+     */
+    private int nextOrdinal = 0;
+
+    /**
+     * Singleton instance of the PermissionRegistry
+     */
+    private static PermissionRegistry instance = null;
+
+    /**
+     * Class constructor.  Reserves the first ordinals for the well-known PermissionTypes.
+     */
+    private PermissionRegistry() {
+        for (PermissionType permissionType : PermissionType.values()) {
+            register(permissionType.getPermissionName());
+        }
+    }
+
+    /**
+     * Returns a reference to the single static instance of the PermissionRegistry.
+     *
+     * @return  singleton instance of PermissionRegistry
+     */
+    public static synchronized PermissionRegistry getInstance() {
+        if (instance == null) {
+            instance = new PermissionRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the ordinal for the Permission ID, assigning the next free ordinal if the ID has not been seen before.
+     *
+     * @param permissionID  the id of the Permission to register
+     * @return  the ordinal of the Permission
+     */
+    public int register(String permissionID) {
+        Integer ordinal = this.ordinalsByID.get(permissionID);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        synchronized (this) {
+            ordinal = this.ordinalsByID.get(permissionID);
+            if (ordinal == null) {
+                ordinal = this.nextOrdinal++;
+                String[] ids = this.idsByOrdinal;
+                if (ordinal >= ids.length) {
+                    ids = Arrays.copyOf(ids, ids.length * 2);
+                }
+                ids[ordinal] = permissionID;
+                this.idsByOrdinal = ids;
+                this.ordinalsByID.put(permissionID, ordinal);
+            }
+            return ordinal;
+        }
+    }
+
+    /**
+     * Returns the ordinal for the Permission ID without registering it.
+     *
+     * @param permissionID  the id of the Permission to look up
+     * @return  the ordinal of the Permission, or {@link PermissionRegistry#UNREGISTERED} if it was never registered
+     */
+    public int lookup(String permissionID) {
+        if (permissionID == null) {
+            return UNREGISTERED;
+        }
+        Integer ordinal = this.ordinalsByID.get(permissionID);
+        return (ordinal != null) ? ordinal : UNREGISTERED;
+    }
+
+    /**
+     * Returns the Permission ID that was assigned the ordinal.
+     *
+     * @param ordinal  the ordinal to look up
+     * @return  the Permission ID, or null if no Permission ID has that ordinal
+     */
+    public String getPermissionID(int ordinal) {
+        String[] ids = this.idsByOrdinal;
+        return (ordinal >= 0 && ordinal < ids.length) ? ids[ordinal] : null;
+    }
+
+    /**
+     * Returns the number of Permission IDs that have been registered so far.
+     *
+     * @return  the number of registered Permission IDs
+     */
+    public int size() {
+        return this.ordinalsByID.size();
+    }
+
+}
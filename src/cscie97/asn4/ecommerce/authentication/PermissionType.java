@@ -62,4 +62,15 @@ public enum PermissionType {
         return this.permissionName;
     }
 
+    /**
+     * Returns the {@link cscie97.asn4.ecommerce.authentication.PermissionRegistry} ordinal of the Permission with
+     * this type's name.  The registry reserves ordinals for every PermissionType in declaration order, so this is
+     * simply the enum ordinal and needs no lookup.
+     *
+     * @return  the registry ordinal of the Permission
+     */
+    public int getOrdinal() {
+        return this.ordinal();
+    }
+
 }
\ No newline at end of file
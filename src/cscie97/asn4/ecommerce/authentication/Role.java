@@ -5,8 +5,12 @@ import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Roles represent aggregations of {@link cscie97.asn4.ecommerce.authentication.Permission}s and other
@@ -46,6 +50,47 @@ public class Role extends Entitlement implements IAuthenticationVisitable {
      */
     private List<Entitlement> children = new ArrayList<Entitlement>();
 
+    /**
+     * Guards every change to the Role graph and its reachability index.  Roles are edited rarely compared to how
+     * often permissions are checked, so a single lock keeps the index consistent without slowing down readers.
+     */
+    private static final Object GRAPH_LOCK = new Object();
+
+    /**
+     * The Roles that directly contain this Role as a child; guarded by {@link Role#GRAPH_LOCK}.
+     */
+    private Set<Role> parents = new HashSet<Role>();
+
+    /**
+     * Every Role that contains this Role, directly or transitively; guarded by {@link Role#GRAPH_LOCK}.
+     */
+    private Set<Role> ancestors = new HashSet<Role>();
+
+    /**
+     * Every Role contained by this Role, directly or transitively; guarded by {@link Role#GRAPH_LOCK}.  Used to
+     * reject child Roles that would introduce a cycle.
+     */
+    private Set<Role> descendants = new HashSet<Role>();
+
+    /**
+     * The IDs of every Role contained by this Role, directly or transitively.  Like
+     * {@link Role#permissionClosure}, the set is replaced rather than modified whenever it changes, so it may be read
+     * without holding {@link Role#GRAPH_LOCK}.
+     */
+    private volatile Set<String> descendantIDs = Collections.<String>emptySet();
+
+    /**
+     * The ordinals of every Permission reachable from this Role.  The set is replaced rather than modified whenever
+     * it changes, so it may be read without holding {@link Role#GRAPH_LOCK}.
+     */
+    private volatile BitSet permissionClosure = new BitSet();
+
+    /**
+     * The Users that have been granted this Role directly; their flattened permission sets are invalidated whenever
+     * this Role, or any Role beneath it, changes.
+     */
+    private Set<User> holders = Collections.newSetFromMap(new ConcurrentHashMap<User, Boolean>());
+
     /**
      * Class constructor.
      *
@@ -72,30 +117,290 @@ public class Role extends Entitlement implements IAuthenticationVisitable {
     }
 
     /**
-     * Sets the current children Entitlements of the Role
+     * Sets the current children Entitlements of the Role, replacing any existing children.  The reachability index
+     * is rebuilt for the Roles affected by the removed children, and then each new child is added in turn; children
+     * that would introduce a cycle are skipped.
      *
      * @param children  the child Entitlements of the Role
      */
     public void setChildren(List<Entitlement> children) {
-        this.children = children;
+        synchronized (GRAPH_LOCK) {
+            Set<Role> affected = new HashSet<Role>(this.ancestors);
+            affected.add(this);
+            affected.addAll(this.descendants);
+            for (Entitlement child : this.children) {
+                if (child instanceof Role) {
+                    ((Role) child).parents.remove(this);
+                }
+            }
+            this.children = new ArrayList<Entitlement>();
+            rebuildIndex(affected);
+            invalidateHolders();
+
+            for (Entitlement child : children) {
+                addChild(child);
+            }
+        }
     }
 
     /**
-     * Adds a child Entitlement to the Role
+     * Adds a child Entitlement to the Role.  A child Role is rejected if it is this Role or already contains this
+     * Role, since that would introduce a cycle into the Role graph.
      *
      * @param entitlement  the children Entitlement to add to the Role
+     * @return  true if the child was added, false if it was null or would have introduced a cycle
      */
-    public void addChild(Entitlement entitlement) {
-        this.children.add(entitlement);
+    public boolean addChild(Entitlement entitlement) {
+        if (entitlement == null) {
+            return false;
+        }
+        synchronized (GRAPH_LOCK) {
+            if (entitlement instanceof Role) {
+                Role child = (Role) entitlement;
+                if (child.equals(this) || child.descendants.contains(this)) {
+                    return false;
+                }
+                this.children.add(child);
+                child.parents.add(this);
+                link(this, child);
+            }
+            else {
+                this.children.add(entitlement);
+                if (entitlement instanceof Permission) {
+                    BitSet added = new BitSet();
+                    setOrdinal(added, (Permission) entitlement);
+                    this.permissionClosure = union(this.permissionClosure, added);
+                    for (Role ancestor : this.ancestors) {
+                        ancestor.permissionClosure = union(ancestor.permissionClosure, added);
+                    }
+                }
+            }
+            invalidateHolders();
+            return true;
+        }
     }
 
     /**
      * Adds multiple children Entitlements to the Role
      *
      * @param entitlements  the set of children Entitlements to add to the Role
+     * @return  true if every child was added, false if any was rejected
+     */
+    public boolean addChildren(Set<Entitlement> entitlements) {
+        boolean allAdded = true;
+        synchronized (GRAPH_LOCK) {
+            for (Entitlement child : entitlements) {
+                allAdded &= addChild(child);
+            }
+        }
+        return allAdded;
+    }
+
+    /**
+     * Checks whether the Entitlement is reachable from this Role, either as a direct child or further down the Role
+     * graph.  Answered from the reachability index without walking the graph.
+     *
+     * @param entitlement  the Role or Permission to look for
+     * @return  true if the Entitlement is reachable from this Role, false otherwise
+     */
+    public boolean reaches(Entitlement entitlement) {
+        if (entitlement instanceof Permission) {
+            int ordinal = ((Permission) entitlement).getOrdinal();
+            return ordinal != PermissionRegistry.UNREGISTERED && this.permissionClosure.get(ordinal);
+        }
+        else if (entitlement instanceof Role) {
+            synchronized (GRAPH_LOCK) {
+                return this.descendants.contains(entitlement);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a Role with the passed ID is reachable from this Role, either as a direct child or further down
+     * the Role graph.  Answered from the reachability index without taking the graph lock.
+     *
+     * @param roleID  the id of the Role to look for
+     * @return  true if a Role with that ID is reachable from this Role, false otherwise
+     */
+    public boolean reachesRoleID(String roleID) {
+        return this.descendantIDs.contains(roleID);
+    }
+
+    /**
+     * Returns the ordinals of every Permission reachable from this Role.  The returned set must not be modified.
+     *
+     * @return  the transitive closure of the Role's Permissions
+     */
+    BitSet getPermissionClosure() {
+        return this.permissionClosure;
+    }
+
+    /**
+     * Records that the User has been granted this Role directly, so that the User's flattened permission set can be
+     * invalidated when this Role changes.
+     *
+     * @param user  the User that holds this Role
+     */
+    void addHolder(User user) {
+        this.holders.add(user);
+    }
+
+    /**
+     * Invalidates the flattened permission set of every User holding this Role or any Role that contains it.  Only
+     * the Users affected by the change are touched.  Must be called while holding {@link Role#GRAPH_LOCK}.
+     */
+    private void invalidateHolders() {
+        for (User user : this.holders) {
+            user.invalidatePermissions();
+        }
+        for (Role ancestor : this.ancestors) {
+            for (User user : ancestor.holders) {
+                user.invalidatePermissions();
+            }
+        }
+    }
+
+    /**
+     * Updates the reachability index for a newly added edge from parent to child: every Role at or above the parent
+     * can now reach every Role at or below the child, along with all of the child's Permissions.  Must be called
+     * while holding {@link Role#GRAPH_LOCK}.
+     *
+     * @param parent  the Role the child was added to
+     * @param child   the newly added child Role
+     */
+    private static void link(Role parent, Role child) {
+        Set<Role> above = new HashSet<Role>(parent.ancestors);
+        above.add(parent);
+        Set<Role> below = new HashSet<Role>(child.descendants);
+        below.add(child);
+
+        for (Role role : above) {
+            role.descendants.addAll(below);
+            role.descendantIDs = withIDs(role.descendantIDs, below);
+            role.permissionClosure = union(role.permissionClosure, child.permissionClosure);
+        }
+        for (Role role : below) {
+            role.ancestors.addAll(above);
+        }
+    }
+
+    /**
+     * Recomputes the reachability index for the affected Roles from their current children and parents.  Only needed
+     * when edges are removed; Roles outside the affected set keep their existing index entries.  Must be called while
+     * holding {@link Role#GRAPH_LOCK}.
+     *
+     * @param affected  the Roles whose index entries may have changed
+     */
+    private static void rebuildIndex(Set<Role> affected) {
+        Set<Role> rebuiltBelow = new HashSet<Role>();
+        Set<Role> rebuiltAbove = new HashSet<Role>();
+        for (Role role : affected) {
+            rebuildBelow(role, affected, rebuiltBelow);
+            rebuildAbove(role, affected, rebuiltAbove);
+        }
+    }
+
+    /**
+     * Recomputes the descendants and Permission closure of the Role, rebuilding affected children first.
+     *
+     * @param role      the Role to rebuild
+     * @param affected  the Roles whose index entries may have changed
+     * @param rebuilt   the Roles already rebuilt during this pass
+     */
+    private static void rebuildBelow(Role role, Set<Role> affected, Set<Role> rebuilt) {
+        if (!affected.contains(role) || !rebuilt.add(role)) {
+            return;
+        }
+        Set<Role> descendants = new HashSet<Role>();
+        BitSet closure = new BitSet();
+        for (Entitlement child : role.children) {
+            if (child instanceof Role) {
+                Role childRole = (Role) child;
+                rebuildBelow(childRole, affected, rebuilt);
+                descendants.add(childRole);
+                descendants.addAll(childRole.descendants);
+                closure.or(childRole.permissionClosure);
+            }
+            else if (child instanceof Permission) {
+                setOrdinal(closure, (Permission) child);
+            }
+        }
+        role.descendants = descendants;
+        role.descendantIDs = withIDs(Collections.<String>emptySet(), descendants);
+        role.permissionClosure = closure;
+    }
+
+    /**
+     * Recomputes the ancestors of the Role, rebuilding affected parents first.
+     *
+     * @param role      the Role to rebuild
+     * @param affected  the Roles whose index entries may have changed
+     * @param rebuilt   the Roles already rebuilt during this pass
+     */
+    private static void rebuildAbove(Role role, Set<Role> affected, Set<Role> rebuilt) {
+        if (!affected.contains(role) || !rebuilt.add(role)) {
+            return;
+        }
+        Set<Role> ancestors = new HashSet<Role>();
+        for (Role parent : role.parents) {
+            rebuildAbove(parent, affected, rebuilt);
+            ancestors.add(parent);
+            ancestors.addAll(parent.ancestors);
+        }
+        role.ancestors = ancestors;
+    }
+
+    /**
+     * Returns the union of the two sets, reusing the first set unchanged if it already contains the second.
+     *
+     * @param current  the existing set; never modified
+     * @param added    the ordinals to add
+     * @return  a set containing both, which is current itself if nothing new was added
+     */
+    private static BitSet union(BitSet current, BitSet added) {
+        BitSet missing = (BitSet) added.clone();
+        missing.andNot(current);
+        if (missing.isEmpty()) {
+            return current;
+        }
+        BitSet result = (BitSet) current.clone();
+        result.or(missing);
+        return result;
+    }
+
+    /**
+     * Returns the IDs in current together with the IDs of the Roles, reusing current unchanged if it already contains
+     * them all.
+     *
+     * @param current  the existing set of IDs; never modified
+     * @param roles    the Roles whose IDs to add
+     * @return  an unmodifiable set containing both, which is current itself if nothing new was added
+     */
+    private static Set<String> withIDs(Set<String> current, Set<Role> roles) {
+        Set<String> result = null;
+        for (Role role : roles) {
+            if (role.getID() != null && !current.contains(role.getID())) {
+                if (result == null) {
+                    result = new HashSet<String>(current);
+                }
+                result.add(role.getID());
+            }
+        }
+        return (result == null) ? current : Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Sets the bit for the Permission's ordinal, skipping Permissions that were never given an ID.
+     *
+     * @param ordinals    the permission set being built
+     * @param permission  the Permission to add
      */
-    public void addChildren(Set<Entitlement> entitlements) {
-        this.children.addAll(entitlements);
+    private static void setOrdinal(BitSet ordinals, Permission permission) {
+        int ordinal = permission.getOrdinal();
+        if (ordinal != PermissionRegistry.UNREGISTERED) {
+            ordinals.set(ordinal);
+        }
     }
 
     /**
@@ -0,0 +1,321 @@
+package cscie97.asn4.ecommerce.authentication;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Concurrent index of the active sessions in the {@link cscie97.asn4.ecommerce.authentication.AuthenticationServiceAPI},
+ * keyed by the ID of each {@link cscie97.asn4.ecommerce.authentication.AccessToken}.  Allows the owning
+ * {@link cscie97.asn4.ecommerce.authentication.User} of a token to be found in constant time regardless of how many
+ * Users are registered, rather than scanning every User and comparing token IDs.
+ *
+ * A User may hold several sessions at once (for example, one per device), up to a per-user cap; opening a session
+ * beyond the cap closes that User's oldest session.  The sessions of each User are guarded by one of a fixed set of
+ * lock stripes chosen by User ID, so logins and logouts for different Users rarely contend, and both opening and
+ * closing a session take O(1).
+ *
+ * Every session is also scheduled on a {@link cscie97.asn4.ecommerce.authentication.TimingWheel} at its token's
+ * expiration time, so that {@link SessionStore#expireSessions(long)} can remove expired sessions in O(1) per token
+ * and the store does not grow without bound as Users log in repeatedly.
+ *
+ * @author David Killeffer &lt;rayden7@gmail.com&gt;
+ * @version 1.0
+ * @see cscie97.asn4.ecommerce.authentication.AccessToken
+ * @see cscie97.asn4.ecommerce.authentication.User
+ * @see cscie97.asn4.ecommerce.authentication.AuthenticationServiceAPI
+ * @see cscie97.asn4.ecommerce.authentication.TimingWheel
+ */
+public class SessionStore {
+
+    /**
+     * Default number of sessions a single User may hold at once
+     */
+    public static final int DEFAULT_MAX_SESSIONS_PER_USER = 8;
+
+    /**
+     * Number of lock stripes guarding the per-user session lists; must be a power of two
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * Duration of one tick of the expiry wheel, in milliseconds; tokens expire at most this long after their deadline
+     */
+    private static final long EXPIRY_TICK_MILLIS = 1000L;
+
+    /**
+     * Number of levels in the expiry wheel; four levels of one-second ticks cover about 194 days
+     */
+    private static final int EXPIRY_LEVELS = 4;
+
+    /**
+     * An active session: the AccessToken, the User that owns it, and its place on the expiry wheel.
+     */
+    static final class Session {
+        private final User user;
+        private final AccessToken token;
+        private volatile TimingWheel.Timeout<String> expiry;
+
+        private Session(User user, AccessToken token) {
+            this.user = user;
+            this.token = token;
+        }
+
+        /**
+         * Returns the User that owns the session.
+         *
+         * @return  the owning User
+         */
+        User getUser() {
+            return user;
+        }
+
+        /**
+         * Returns the AccessToken of the session.
+         *
+         * @return  the session's token
+         */
+        AccessToken getToken() {
+            return token;
+        }
+    }
+
+    /**
+     * The greatest number of sessions a single User may hold at once
+     */
+    private final int maxSessionsPerUser;
+
+    /**
+     * Maps the ID of each active AccessToken to its session
+     */
+    private final ConcurrentMap<String, Session> sessionsByTokenID = new ConcurrentHashMap<String, Session>();
+
+    /**
+     * The sessions of each User in the order they were opened, keyed by User ID; each list is guarded by the lock
+     * stripe for its User
+     */
+    private final ConcurrentMap<String, LinkedHashMap<String, Session>> sessionsByUserID =
+            new ConcurrentHashMap<String, LinkedHashMap<String, Session>>();
+
+    /**
+     * Locks guarding the per-user session lists
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /**
+     * Schedules each session's token ID at the token's expiration time
+     */
+    private final TimingWheel<String> expiryWheel = new TimingWheel<String>(EXPIRY_TICK_MILLIS, EXPIRY_LEVELS, System.currentTimeMillis());
+
+    /**
+     * Class constructor.  Users may hold up to {@link SessionStore#DEFAULT_MAX_SESSIONS_PER_USER} sessions.
+     */
+    public SessionStore() {
+        this(DEFAULT_MAX_SESSIONS_PER_USER);
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param maxSessionsPerUser  the greatest number of sessions a single User may hold at once
+     */
+    public SessionStore(int maxSessionsPerUser) {
+        this.maxSessionsPerUser = Math.max(1, maxSessionsPerUser);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            this.locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Registers the AccessToken as a new active session for the User, alongside any sessions the User already holds.
+     * If the User would then hold more than the per-user cap, their oldest session is closed.
+     *
+     * @param user   the User that owns the token
+     * @param token  the new AccessToken for the User
+     * @return  the ID of the AccessToken that was closed to stay within the cap, or null if none was
+     */
+    public String open(User user, AccessToken token) {
+        Session session = new Session(user, token);
+        synchronized (lockFor(user)) {
+            // scheduled before the session is published, so a close() or eviction always finds its expiry to cancel
+            session.expiry = this.expiryWheel.schedule(token.getId(), token.getExpiresAt());
+            LinkedHashMap<String, Session> userSessions = this.sessionsByUserID.get(user.getID());
+            if (userSessions == null) {
+                userSessions = new LinkedHashMap<String, Session>();
+                this.sessionsByUserID.put(user.getID(), userSessions);
+            }
+            userSessions.put(token.getId(), session);
+            this.sessionsByTokenID.put(token.getId(), session);
+            user.setAccessToken(token);
+
+            if (userSessions.size() <= this.maxSessionsPerUser) {
+                return null;
+            }
+            Session evicted = userSessions.values().iterator().next();
+            removeLocked(evicted);
+            this.expiryWheel.cancel(evicted.expiry);
+            return evicted.token.getId();
+        }
+    }
+
+    /**
+     * Removes the session for the AccessToken with the passed ID.
+     *
+     * @param tokenID  the id of the AccessToken to remove
+     * @return  the AccessToken of the removed session, or null if no session was found
+     */
+    public AccessToken close(String tokenID) {
+        Session session = getSession(tokenID);
+        if (session == null || !remove(session)) {
+            return null;
+        }
+        this.expiryWheel.cancel(session.expiry);
+        return session.token;
+    }
+
+    /**
+     * Looks up the session for the AccessToken with the passed ID.
+     *
+     * @param tokenID  the id of the AccessToken to look up
+     * @return  the session, or null if no session was found
+     */
+    Session getSession(String tokenID) {
+        if (tokenID == null) {
+            return null;
+        }
+        return this.sessionsByTokenID.get(tokenID);
+    }
+
+    /**
+     * Looks up the User that owns the AccessToken with the passed ID.
+     *
+     * @param tokenID  the id of the AccessToken to look up
+     * @return  the owning User, or null if no session was found
+     */
+    public User getUser(String tokenID) {
+        Session session = getSession(tokenID);
+        return (session != null) ? session.user : null;
+    }
+
+    /**
+     * Returns the number of sessions the User currently holds.
+     *
+     * @param user  the User to count sessions for
+     * @return  the number of active sessions held by the User
+     */
+    public int getSessionCount(User user) {
+        synchronized (lockFor(user)) {
+            LinkedHashMap<String, Session> userSessions = this.sessionsByUserID.get(user.getID());
+            return (userSessions != null) ? userSessions.size() : 0;
+        }
+    }
+
+    /**
+     * Removes every session whose AccessToken has expired.  Tokens whose expiration was extended after they were
+     * scheduled are rescheduled instead.
+     *
+     * @param nowMillis  the current time, in milliseconds since the epoch
+     * @return  the IDs of the AccessTokens that were expired
+     */
+    public List<String> expireSessions(long nowMillis) {
+        List<String> expired = new ArrayList<String>();
+        for (String tokenID : this.expiryWheel.advance(nowMillis)) {
+            Session session = getSession(tokenID);
+            if (session == null) {
+                continue;
+            }
+            if (!session.token.isExpired(nowMillis)) {
+                reschedule(session);
+                continue;
+            }
+            if (remove(session)) {
+                expired.add(tokenID);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Puts the session back on the expiry wheel at its token's current expiration time, unless it has been removed
+     * meanwhile.  Done under the User's lock stripe, so that a concurrent close() either sees the new expiry and
+     * cancels it, or has already removed the session and nothing is scheduled.
+     *
+     * @param session  the session whose token's expiration was extended
+     */
+    private void reschedule(Session session) {
+        synchronized (lockFor(session.user)) {
+            if (this.sessionsByTokenID.get(session.token.getId()) == session) {
+                session.expiry = this.expiryWheel.schedule(session.token.getId(), session.token.getExpiresAt());
+            }
+        }
+    }
+
+    /**
+     * Returns the number of sessions currently held in the store.
+     *
+     * @return  the number of active sessions
+     */
+    public int size() {
+        return this.sessionsByTokenID.size();
+    }
+
+    /**
+     * Removes the session from both indexes under its User's lock stripe.
+     *
+     * @param session  the session to remove
+     * @return  true if the session was removed, false if it had already been removed
+     */
+    private boolean remove(Session session) {
+        synchronized (lockFor(session.user)) {
+            if (this.sessionsByTokenID.get(session.token.getId()) != session) {
+                return false;
+            }
+            removeLocked(session);
+            return true;
+        }
+    }
+
+    /**
+     * Removes the session from both indexes.  If it held the User's current AccessToken, the User's most recent
+     * remaining token takes its place.  Must be called while holding the lock stripe for the session's User.
+     *
+     * @param session  the session to remove
+     */
+    private void removeLocked(Session session) {
+        String tokenID = session.token.getId();
+        this.sessionsByTokenID.remove(tokenID, session);
+        LinkedHashMap<String, Session> userSessions = this.sessionsByUserID.get(session.user.getID());
+        if (userSessions == null) {
+            return;
+        }
+        userSessions.remove(tokenID);
+        if (userSessions.isEmpty()) {
+            this.sessionsByUserID.remove(session.user.getID());
+        }
+        if (session.user.getAccessToken() == session.token) {
+            // the per-user list is bounded by the session cap, so finding the newest remaining token is O(1)
+            AccessToken newest = null;
+            Iterator<Session> remaining = userSessions.values().iterator();
+            while (remaining.hasNext()) {
+                newest = remaining.next().token;
+            }
+            session.user.setAccessToken(newest);
+        }
+    }
+
+    /**
+     * Returns the lock stripe guarding the sessions of the User.
+     *
+     * @param user  the User whose sessions are being changed
+     * @return  the lock for the User's sessions
+     */
+    private Object lockFor(User user) {
+        int hash = user.getID().hashCode();
+        hash ^= (hash >>> 16);
+        return this.locks[hash & (LOCK_STRIPES - 1)];
+    }
+
+}
@@ -0,0 +1,199 @@
+package cscie97.asn4.ecommerce.authentication;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Issues and verifies stateless {@link cscie97.asn4.ecommerce.authentication.AccessToken}s.  The ID of a signed token
+ * carries the ID of the owning {@link cscie97.asn4.ecommerce.authentication.User}, the expiration time, and the
+ * User's permissions version at the time of login, followed by an HMAC-SHA256 signature over all of them made with a
+ * locally configured key.  A signed token can therefore be validated with CPU work alone, without looking the token
+ * up in the {@link cscie97.asn4.ecommerce.authentication.SessionStore}.
+ *
+ * Signed token IDs have the form <code>st1.&lt;payload&gt;.&lt;signature&gt;</code>, where both parts are unpadded
+ * URL-safe Base64.  Each thread keeps its own {@link javax.crypto.Mac}, so verification takes no locks.
+ *
+ * @author David Killeffer &lt;rayden7@gmail.com&gt;
+ * @version 1.0
+ * @see cscie97.asn4.ecommerce.authentication.AccessToken
+ * @see cscie97.asn4.ecommerce.authentication.AuthenticationServiceAPI
+ */
+public class SignedTokenCodec {
+
+    /**
+     * Prefix that marks a token ID as signed, and names the version of the format
+     */
+    public static final String PREFIX = "st1.";
+
+    /**
+     * MAC algorithm used to sign tokens
+     */
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /**
+     * Number of random bytes in each token, so that two logins in the same millisecond get distinct tokens
+     */
+    private static final int NONCE_BYTES = 8;
+
+    /**
+     * The fields carried in a verified signed token.
+     */
+    public static final class Claims {
+        private final String userID;
+        private final long expiresAt;
+        private final long permissionsVersion;
+
+        private Claims(String userID, long expiresAt, long permissionsVersion) {
+            this.userID = userID;
+            this.expiresAt = expiresAt;
+            this.permissionsVersion = permissionsVersion;
+        }
+
+        /**
+         * Returns the ID of the User that owns the token.
+         *
+         * @return  the owning User's ID
+         */
+        public String getUserID() {
+            return userID;
+        }
+
+        /**
+         * Returns when the token expires.
+         *
+         * @return  the expiration time, in milliseconds since the epoch
+         */
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+
+        /**
+         * Returns the permissions version of the owning User when the token was issued; if the User's current version
+         * differs, their Entitlements have changed since they logged in.
+         *
+         * @return  the User's permissions version at login
+         */
+        public long getPermissionsVersion() {
+            return permissionsVersion;
+        }
+    }
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Each thread's own initialized Mac, since Mac instances are not thread-safe
+     */
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            return newMac();
+        }
+    };
+
+    /**
+     * Class constructor.
+     *
+     * @param key  the secret signing key; should be at least 32 bytes
+     * @throws IllegalArgumentException  if the key is empty or cannot be used for HMAC-SHA256
+     */
+    public SignedTokenCodec(byte[] key) {
+        if (key == null || key.length == 0) {
+            throw new IllegalArgumentException("signing key must not be empty");
+        }
+        this.key = new SecretKeySpec(key.clone(), ALGORITHM);
+        // fail now rather than on the first login if the key is unusable
+        newMac();
+    }
+
+    /**
+     * Issues a new signed AccessToken for the User, expiring after the default lifetime.
+     *
+     * @param user  the User that is logging in
+     * @return  the new signed AccessToken
+     */
+    public AccessToken issue(User user) {
+        long expiresAt = System.currentTimeMillis() + AccessToken.DEFAULT_LIFETIME_MILLIS;
+        byte[] nonce = new byte[NONCE_BYTES];
+        this.random.nextBytes(nonce);
+        // numeric fields first, so the user ID may contain any character
+        String payload = expiresAt + ":" + user.getPermissionsVersion() + ":" + ENCODER.encodeToString(nonce) + ":" + user.getID();
+        String unsigned = PREFIX + ENCODER.encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        String signature = ENCODER.encodeToString(this.macs.get().doFinal(unsigned.getBytes(StandardCharsets.UTF_8)));
+        return new AccessToken(unsigned + "." + signature, user.getID(), expiresAt);
+    }
+
+    /**
+     * Checks whether the token ID is in the signed format.  Says nothing about whether the signature is valid.
+     *
+     * @param tokenID  the token ID to check
+     * @return  true if the token ID is a signed token, false otherwise
+     */
+    public static boolean isSigned(String tokenID) {
+        return tokenID != null && tokenID.startsWith(PREFIX);
+    }
+
+    /**
+     * Verifies the signature and expiration of a signed token ID.
+     *
+     * @param tokenID    the signed token ID
+     * @param nowMillis  the current time, in milliseconds since the epoch
+     * @return  the claims carried in the token, or null if the token is malformed, forged, or expired
+     */
+    public Claims verify(String tokenID, long nowMillis) {
+        if (!isSigned(tokenID)) {
+            return null;
+        }
+        int dot = tokenID.lastIndexOf('.');
+        if (dot < PREFIX.length()) {
+            return null;
+        }
+        try {
+            byte[] expected = this.macs.get().doFinal(tokenID.substring(0, dot).getBytes(StandardCharsets.UTF_8));
+            // constant-time comparison, so the signature cannot be guessed a byte at a time
+            if (!MessageDigest.isEqual(expected, DECODER.decode(tokenID.substring(dot + 1)))) {
+                return null;
+            }
+            String payload = new String(DECODER.decode(tokenID.substring(PREFIX.length(), dot)), StandardCharsets.UTF_8);
+            String[] fields = payload.split(":", 4);
+            if (fields.length != 4) {
+                return null;
+            }
+            long expiresAt = Long.parseLong(fields[0]);
+            if (nowMillis >= expiresAt) {
+                return null;
+            }
+            return new Claims(fields[3], expiresAt, Long.parseLong(fields[1]));
+        }
+        catch (IllegalArgumentException iae) {
+            // bad Base64 or a bad number; NumberFormatException is a subclass
+            return null;
+        }
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(this.key);
+            return mac;
+        }
+        catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(ALGORITHM + " is not available", nsae);
+        }
+        catch (InvalidKeyException ike) {
+            throw new IllegalArgumentException("signing key cannot be used for " + ALGORITHM, ike);
+        }
+    }
+
+}
@@ -0,0 +1,245 @@
+package cscie97.asn4.ecommerce.authentication;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel used to expire items, such as {@link cscie97.asn4.ecommerce.authentication.AccessToken}
+ * sessions, at their deadlines.  Scheduling and cancelling an item are both O(1), and advancing the wheel costs O(1)
+ * per expired item plus one step per elapsed tick, no matter how many items are scheduled.
+ *
+ * The lowest level of the wheel has one bucket per tick.  Each higher level has buckets that span a full rotation of
+ * the level beneath it; items far in the future wait in a higher level and are cascaded down as their deadline
+ * approaches.
+ *
+ * @author David Killeffer &lt;rayden7@gmail.com&gt;
+ * @version 1.0
+ * @see cscie97.asn4.ecommerce.authentication.SessionStore
+ */
+public class TimingWheel<T> {
+
+    /**
+     * A scheduled item.  Returned by {@link TimingWheel#schedule} so that the item can later be cancelled.
+     */
+    public static final class Timeout<T> {
+        private final T item;
+        private final long tick;
+        private Timeout<T> previous;
+        private Timeout<T> next;
+        private Bucket<T> bucket;
+
+        private Timeout(T item, long tick) {
+            this.item = item;
+            this.tick = tick;
+        }
+
+        /**
+         * Returns the scheduled item.
+         *
+         * @return  the scheduled item
+         */
+        public T getItem() {
+            return item;
+        }
+    }
+
+    /**
+     * A doubly-linked list of the Timeouts that fall in one slot of one level of the wheel.
+     */
+    private static final class Bucket<T> {
+        private Timeout<T> head;
+
+        private void add(Timeout<T> timeout) {
+            timeout.bucket = this;
+            timeout.previous = null;
+            timeout.next = head;
+            if (head != null) {
+                head.previous = timeout;
+            }
+            head = timeout;
+        }
+
+        private void remove(Timeout<T> timeout) {
+            if (timeout.previous != null) {
+                timeout.previous.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        private Timeout<T> clear() {
+            Timeout<T> first = head;
+            head = null;
+            return first;
+        }
+    }
+
+    /**
+     * Number of bits of the tick used to index one level; each level has 2^BITS_PER_LEVEL buckets
+     */
+    private static final int BITS_PER_LEVEL = 6;
+
+    private static final int WHEEL_SIZE = 1 << BITS_PER_LEVEL;
+
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    /**
+     * Duration of a single tick of the lowest level, in milliseconds
+     */
+    private final long tickMillis;
+
+    /**
+     * The buckets of each level, lowest level first
+     */
+    private final Bucket<T>[][] levels;
+
+    /**
+     * Number of ticks, past which items are held in the top level until they come within range
+     */
+    private final long span;
+
+    /**
+     * The last tick the wheel has advanced to
+     */
+    private long currentTick;
+
+    /**
+     * The number of items currently scheduled
+     */
+    private int size = 0;
+
+    /**
+     * Class constructor.
+     *
+     * @param tickMillis  duration of a single tick, in milliseconds; deadlines are rounded up to a whole tick
+     * @param levels      number of levels in the wheel; together they cover 64^levels ticks
+     * @param nowMillis   the current time, in milliseconds since the epoch
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickMillis, int levels, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.levels = (Bucket<T>[][]) new Bucket<?>[levels][WHEEL_SIZE];
+        for (int level = 0; level < levels; level++) {
+            for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+                this.levels[level][slot] = new Bucket<T>();
+            }
+        }
+        this.span = 1L << (BITS_PER_LEVEL * levels);
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    /**
+     * Schedules the item to expire at the deadline.  Deadlines that have already passed expire on the next advance.
+     *
+     * @param item            the item to schedule
+     * @param deadlineMillis  when the item expires, in milliseconds since the epoch
+     * @return  a Timeout that may be passed to {@link TimingWheel#cancel}
+     */
+    public synchronized Timeout<T> schedule(T item, long deadlineMillis) {
+        // round up, so an item never expires before its deadline
+        long tick = Math.max((deadlineMillis + tickMillis - 1) / tickMillis, currentTick + 1);
+        Timeout<T> timeout = new Timeout<T>(item, tick);
+        place(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Cancels a scheduled item so that it will not be returned by {@link TimingWheel#advance}.
+     *
+     * @param timeout  the Timeout returned when the item was scheduled
+     * @return  true if the item was still scheduled, false if it had already expired or been cancelled
+     */
+    public synchronized boolean cancel(Timeout<T> timeout) {
+        if (timeout == null || timeout.bucket == null) {
+            return false;
+        }
+        timeout.bucket.remove(timeout);
+        size--;
+        return true;
+    }
+
+    /**
+     * Advances the wheel to the current time and returns every item whose deadline has passed.
+     *
+     * @param nowMillis  the current time, in milliseconds since the epoch
+     * @return  the expired items, which are no longer scheduled
+     */
+    public synchronized List<T> advance(long nowMillis) {
+        List<T> expired = new ArrayList<T>();
+        long targetTick = nowMillis / tickMillis;
+        while (currentTick < targetTick) {
+            if (size == 0) {
+                // nothing to cascade or expire, so skip straight to the target
+                currentTick = targetTick;
+                break;
+            }
+            currentTick++;
+
+            // whenever a lower level wraps around, pull the matching bucket of the level above down
+            for (int level = 1; level < levels.length; level++) {
+                int shift = BITS_PER_LEVEL * level;
+                if ((currentTick & ((1L << shift) - 1)) != 0) {
+                    break;
+                }
+                int slot = (int) ((currentTick >>> shift) & WHEEL_MASK);
+                Timeout<T> timeout = levels[level][slot].clear();
+                while (timeout != null) {
+                    Timeout<T> next = timeout.next;
+                    place(timeout);
+                    timeout = next;
+                }
+            }
+
+            Timeout<T> timeout = levels[0][(int) (currentTick & WHEEL_MASK)].clear();
+            while (timeout != null) {
+                Timeout<T> next = timeout.next;
+                if (timeout.tick <= currentTick) {
+                    timeout.bucket = null;
+                    timeout.previous = null;
+                    timeout.next = null;
+                    size--;
+                    expired.add(timeout.item);
+                } else {
+                    // deadline was beyond the range of the wheel when scheduled; keep waiting
+                    place(timeout);
+                }
+                timeout = next;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Returns the number of items currently scheduled.
+     *
+     * @return  the number of scheduled items
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Puts the Timeout into the bucket for its deadline, choosing the lowest level whose range covers it.
+     *
+     * @param timeout  the Timeout to place
+     */
+    private void place(Timeout<T> timeout) {
+        // deadlines beyond the range of the wheel wait in the furthest top-level bucket
+        long tick = Math.min(timeout.tick, currentTick + span - 1);
+        long delta = tick - currentTick;
+        int level = 0;
+        while (level < levels.length - 1 && delta >= (1L << (BITS_PER_LEVEL * (level + 1)))) {
+            level++;
+        }
+        int slot = (int) ((tick >>> (BITS_PER_LEVEL * level)) & WHEEL_MASK);
+        levels[level][slot].add(timeout);
+    }
+
+}
@@ -0,0 +1,129 @@
+package cscie97.asn4.ecommerce.authentication;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket rate limiter.  The bucket holds up to <code>capacity</code> tokens and refills at a steady
+ * rate; each permitted attempt takes one token, and attempts that find the bucket empty are refused.
+ *
+ * The bucket is kept in its "virtual scheduling" form: rather than a token count and a refill timestamp, it stores
+ * the single time at which the bucket would next be completely full.  Taking a token pushes that time one refill
+ * interval later, and an attempt is refused if doing so would put it more than <code>capacity</code> intervals ahead
+ * of now.  Since the whole state is one long, it is updated with a compare-and-set, and checking the bucket neither
+ * locks nor allocates.
+ *
+ * A bucket that has refilled completely can be retired, which marks it so that no further tokens are taken from it;
+ * {@link cscie97.asn4.ecommerce.authentication.LoginThrottle} retires idle buckets before discarding them, so that a
+ * login can never take a token from a bucket that has already been thrown away.
+ *
+ * @author David Killeffer &lt;rayden7@gmail.com&gt;
+ * @version 1.0
+ * @see cscie97.asn4.ecommerce.authentication.LoginThrottle
+ */
+public class TokenBucket {
+
+    /**
+     * Nanoseconds needed to refill a single token
+     */
+    private final long refillIntervalNanos;
+
+    /**
+     * How far ahead of now the full time may be pushed: the capacity of the bucket, in nanoseconds
+     */
+    private final long burstNanos;
+
+    /**
+     * Value of {@link TokenBucket#fullAt} once the bucket has been retired
+     */
+    private static final long RETIRED = Long.MIN_VALUE;
+
+    /**
+     * The time, on the {@link System#nanoTime()} clock, at which the bucket will be full again
+     */
+    private final AtomicLong fullAt;
+
+    /**
+     * Class constructor.  The bucket starts full.
+     *
+     * @param capacity          the greatest number of tokens the bucket holds, i.e. the largest permitted burst
+     * @param tokensPerSecond   the rate at which the bucket refills
+     */
+    public TokenBucket(int capacity, double tokensPerSecond) {
+        if (capacity < 1 || tokensPerSecond <= 0) {
+            throw new IllegalArgumentException("capacity and refill rate must be positive");
+        }
+        this.refillIntervalNanos = Math.max(1L, (long) (1000000000L / tokensPerSecond));
+        this.burstNanos = this.refillIntervalNanos * capacity;
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Takes a token from the bucket if one is available.
+     *
+     * @param nowNanos  the current time, from {@link System#nanoTime()}
+     * @return  true if a token was taken, false if the bucket is empty or retired
+     */
+    public boolean tryAcquire(long nowNanos) {
+        while (true) {
+            long current = this.fullAt.get();
+            if (current == RETIRED) {
+                return false;
+            }
+            // a bucket that filled up in the past is simply full now
+            long next = Math.max(current - nowNanos, 0L) + this.refillIntervalNanos;
+            if (next > this.burstNanos) {
+                return false;
+            }
+            if (this.fullAt.compareAndSet(current, nowNanos + next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Checks whether the bucket has refilled completely, meaning it holds no record of recent attempts.
+     *
+     * @param nowNanos  the current time, from {@link System#nanoTime()}
+     * @return  true if the bucket is full, false otherwise
+     */
+    public boolean isFull(long nowNanos) {
+        long current = this.fullAt.get();
+        return current != RETIRED && current - nowNanos <= 0;
+    }
+
+    /**
+     * Gives back a token taken by {@link TokenBucket#tryAcquire(long)}, for an attempt that was refused for some other
+     * reason and so should not count against this bucket.
+     */
+    public void refund() {
+        while (true) {
+            long current = this.fullAt.get();
+            if (current == RETIRED || this.fullAt.compareAndSet(current, current - this.refillIntervalNanos)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Retires the bucket if it has refilled completely, so that no further tokens can be taken from it.  Taking a
+     * token and retiring are atomic with respect to each other: a bucket a token was just taken from is not full, and
+     * a retired bucket gives no more tokens.
+     *
+     * @param nowNanos  the current time, from {@link System#nanoTime()}
+     * @return  true if the bucket was full and is now retired, false otherwise
+     */
+    boolean retireIfFull(long nowNanos) {
+        long current = this.fullAt.get();
+        return current != RETIRED && current - nowNanos <= 0 && this.fullAt.compareAndSet(current, RETIRED);
+    }
+
+    /**
+     * Checks whether the bucket has been retired.
+     *
+     * @return  true if no further tokens can be taken from the bucket
+     */
+    boolean isRetired() {
+        return this.fullAt.get() == RETIRED;
+    }
+
+}
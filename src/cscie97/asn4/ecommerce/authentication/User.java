@@ -2,11 +2,11 @@ package cscie97.asn4.ecommerce.authentication;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
+import java.util.BitSet;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Registered Users may call restricted interface methods on each of the
@@ -14,9 +14,9 @@ import java.util.UUID;
  * {@link cscie97.asn4.ecommerce.product.IProductAPI}, and
  * {@link cscie97.asn4.ecommerce.collection.ICollectionServiceAPI} services, as long as the User has the appropriate
  * Entitlements.  Users may have multiple sets of {@link cscie97.asn4.ecommerce.authentication.Credentials}, which
- * mean they are able to log in with different sets of usernames and passwords.  However, each user may only have a
- * single AccessToken, the ID of which is passed around to the restricted interface methods to ensure the user is
- * authorized to carry out the method being called.
+ * mean they are able to log in with different sets of usernames and passwords.  Each login opens a new session with
+ * its own AccessToken, so a user may be logged in from several devices at once; the ID of the AccessToken is passed
+ * around to the restricted interface methods to ensure the user is authorized to carry out the method being called.
  *
  * @author David Killeffer &lt;rayden7@gmail.com&gt;
  * @version 1.0
@@ -36,11 +36,35 @@ public class User extends Item implements IAuthenticationVisitable {
     private Set<Entitlement> entitlements = new HashSet<Entitlement>();
 
     /**
-     * The AccessToken is what is checked for validity when the user calls restricted interface methods on any
-     * of the published APIs
+     * The AccessToken of the user's most recently opened session that is still active; every active session's token
+     * is checked for validity when the user calls restricted interface methods on any of the published APIs
      */
     private AccessToken token;
 
+    /**
+     * Incremented every time the Entitlements of the user (or any Role reachable from them) change, so that a
+     * flattened permission set computed against an older version is known to be stale
+     */
+    private final AtomicLong permissionsVersion = new AtomicLong();
+
+    /**
+     * The most recently computed transitive closure of the user's Permissions; null until first needed
+     */
+    private volatile EffectivePermissions effectivePermissions = null;
+
+    /**
+     * Immutable pairing of a flattened permission set with the permissions version it was computed against.
+     */
+    private static final class EffectivePermissions {
+        private final long version;
+        private final BitSet ordinals;
+
+        private EffectivePermissions(long version, BitSet ordinals) {
+            this.version = version;
+            this.ordinals = ordinals;
+        }
+    }
+
     /**
      * Class constructor.
      *
@@ -112,12 +136,18 @@ public class User extends Item implements IAuthenticationVisitable {
      */
     public void setEntitlements(Set<Entitlement> entitlements) {
         this.entitlements = entitlements;
+        for (Entitlement entitlement : entitlements) {
+            if (entitlement instanceof Role) {
+                ((Role) entitlement).addHolder(this);
+            }
+        }
+        invalidatePermissions();
     }
 
     /**
-     * Gets the AccessToken for the User
+     * Gets the AccessToken of the User's most recently opened session that is still active
      *
-     * @return  the user's token
+     * @return  the user's most recent token, or null if the user holds no active session
      */
     public AccessToken getAccessToken() {
         return token;
@@ -153,33 +183,142 @@ public class User extends Item implements IAuthenticationVisitable {
      * @param entitlement  the entitlement to add to the user
      */
     public void addEntitlement(Entitlement entitlement) {
+        if (entitlement == null) {
+            return;
+        }
         this.entitlements.add(entitlement);
+        if (entitlement instanceof Role) {
+            ((Role) entitlement).addHolder(this);
+        }
+        invalidatePermissions();
     }
 
     /**
      * Checks to see if the User has an {@link cscie97.asn4.ecommerce.authentication.Entitlement} that has the
-     * passed permissionID.
+     * passed permissionID.  The ID may name either a Permission or a Role; a Role matches if the User holds it
+     * directly or through another Role.
      *
-     * @param permissionID  the id of the {@link cscie97.asn4.ecommerce.authentication.Permission} to check if the
-     *                      user has
-     * @return  true if the user has the Permission, false otherwise
+     * @param permissionID  the id of the {@link cscie97.asn4.ecommerce.authentication.Permission} or
+     *                      {@link cscie97.asn4.ecommerce.authentication.Role} to check if the user has
+     * @return  true if the user has the Permission or Role, false otherwise
      */
     public boolean hasPermission(String permissionID) {
+        if (hasPermission(PermissionRegistry.getInstance().lookup(permissionID))) {
+            return true;
+        }
+        return hasRole(permissionID);
+    }
+
+    /**
+     * Checks to see if the User holds the Role with the passed ID, either directly or through another Role.
+     *
+     * @param roleID  the id of the {@link cscie97.asn4.ecommerce.authentication.Role} to check if the user has
+     * @return  true if the user has the Role, false otherwise
+     */
+    public boolean hasRole(String roleID) {
+        if (roleID == null) {
+            return false;
+        }
         for (Entitlement e : getEntitlements()) {
-            if (e.getID().equals(permissionID)) {
+            if (e instanceof Role && (roleID.equals(e.getID()) || ((Role) e).reachesRoleID(roleID))) {
                 return true;
             }
+        }
+        return false;
+    }
+
+    /**
+     * Checks to see if the User holds the Permission of the passed type.  Since every PermissionType maps directly
+     * to its ordinal, this is a single bit test with no string comparison.
+     *
+     * @param permissionType  the type of the Permission to check if the user has
+     * @return  true if the user has the Permission, false otherwise
+     */
+    public boolean hasPermission(PermissionType permissionType) {
+        return hasPermission(permissionType.getOrdinal());
+    }
+
+    /**
+     * Checks to see if the User holds the Permission with the passed
+     * {@link cscie97.asn4.ecommerce.authentication.PermissionRegistry} ordinal.
+     *
+     * @param ordinal  the ordinal of the Permission to check if the user has
+     * @return  true if the user has the Permission, false otherwise
+     */
+    public boolean hasPermission(int ordinal) {
+        return ordinal >= 0 && getEffectivePermissions().get(ordinal);
+    }
+
+    /**
+     * Returns the current permissions version of the User.  The version changes whenever the User's Entitlements,
+     * or a Role reachable from them, change; anything derived from the User's permissions can record the version
+     * it was computed against and later compare it to detect that it is stale.
+     *
+     * @return  the current permissions version
+     */
+    long getPermissionsVersion() {
+        return this.permissionsVersion.get();
+    }
+
+    /**
+     * Marks the flattened permission set of the User as stale, so that it will be recomputed on the next
+     * permission check.  Called whenever the User's Entitlements, or a Role reachable from them, change.
+     */
+    public void invalidatePermissions() {
+        this.permissionsVersion.incrementAndGet();
+    }
+
+    /**
+     * Returns the transitive closure of the User's Permissions as a set of
+     * {@link cscie97.asn4.ecommerce.authentication.PermissionRegistry} ordinals.  The closure is computed once and
+     * reused until {@link User#invalidatePermissions()} is called.  The returned set must not be modified.
+     *
+     * @return  the ordinals of every Permission the User holds, directly or through a Role
+     */
+    BitSet getEffectivePermissions() {
+        EffectivePermissions current = this.effectivePermissions;
+        long version = this.permissionsVersion.get();
+        if (current != null && current.version == version) {
+            return current.ordinals;
+        }
+        BitSet ordinals = computeEffectivePermissions();
+        // only publish if nothing changed while we were computing; otherwise the next check recomputes
+        if (this.permissionsVersion.get() == version) {
+            this.effectivePermissions = new EffectivePermissions(version, ordinals);
+        }
+        return ordinals;
+    }
+
+    /**
+     * Combines each of the User's Entitlements into a single permission set, using the precomputed Permission
+     * closure of each Role so that the cost does not depend on how deep or wide the Roles are.
+     *
+     * @return  the ordinals of every Permission the User holds
+     */
+    private BitSet computeEffectivePermissions() {
+        BitSet ordinals = new BitSet();
+        for (Entitlement e : getEntitlements()) {
+            if (e instanceof Permission) {
+                setOrdinal(ordinals, (Permission) e);
+            }
             else if (e instanceof Role) {
-                RoleIterator iterator = ((Role) e).getIterator();
-                while (iterator.hasNext()) {
-                    Entitlement e2 = iterator.next();
-                    if (e2.getID().equals(permissionID)) {
-                        return true;
-                    }
-                }
+                ordinals.or(((Role) e).getPermissionClosure());
             }
         }
-        return false;
+        return ordinals;
+    }
+
+    /**
+     * Sets the bit for the Permission's ordinal, skipping Permissions that were never given an ID.
+     *
+     * @param ordinals    the permission set being built
+     * @param permission  the Permission to add
+     */
+    private static void setOrdinal(BitSet ordinals, Permission permission) {
+        int ordinal = permission.getOrdinal();
+        if (ordinal != PermissionRegistry.UNREGISTERED) {
+            ordinals.set(ordinal);
+        }
     }
 
     /**
@@ -190,12 +329,8 @@ public class User extends Item implements IAuthenticationVisitable {
      */
     public boolean validatePassword(String password) {
         for (Credentials c : credentials) {
-            try {
-                if (PasswordHash.validatePassword(password, c.getPasswordHash()) )
-                    return true;
-            }
-            catch (NoSuchAlgorithmException nsae) { }
-            catch (InvalidKeySpecException ikse) { }
+            if (c.validatePassword(password))
+                return true;
         }
         return false;
     }
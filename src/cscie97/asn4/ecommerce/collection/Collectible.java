@@ -1,7 +1,19 @@
 package cscie97.asn4.ecommerce.collection;
 
 import java.util.List;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Abstract parent class for {@link cscie97.asn4.ecommerce.collection.Collection} and
@@ -46,15 +58,50 @@ public abstract class Collectible {
     private String description;
 
     /**
-     * All children Collectibles of the current Collectible; this makes the Collectible a tree structure
+     * All children Collectibles of the current Collectible; this makes the Collectible a tree structure.  Each
+     * ChildList is a read-only view that never changes once published: adding a child writes it past the end of the
+     * view and publishes a longer view of the same array, and removing children publishes a view of a new array, so
+     * readers on other threads always see a complete list without locking or copying.
      */
-    private List<Collectible> children = new ArrayList<Collectible>();
+    private volatile ChildList children = ChildList.EMPTY;
+
+    /**
+     * IDs of the children, so that adding a child whose ID is already present can be rejected without scanning them;
+     * only used while holding the lock on this Collectible
+     */
+    private Set<String> childIDs = new HashSet<String>();
 
     /**
      * Used for iterating over this Collectible and all children elements.
      */
     private CollectionIterator iterator = null;
 
+    /**
+     * Number of times the children have changed; lets an in-progress
+     * {@link cscie97.asn4.ecommerce.collection.CollectionIterator} detect that the children changed under it.
+     */
+    private volatile int modCount = 0;
+
+    /**
+     * Every Collectible this one has been added to as a child; copied on write, because parents on different threads
+     * add and remove themselves while others walk up through them
+     */
+    private final List<Collectible> parents = new CopyOnWriteArrayList<Collectible>();
+
+    /**
+     * Number of items a {@link cscie97.asn4.ecommerce.collection.CollectionIterator} over this Collectible returns,
+     * counting this Collectible itself; kept up to date as children are added anywhere beneath it, by whichever
+     * thread adds them, so it is only changed through {@link Collectible#SUBTREE_SIZE}
+     */
+    private volatile long subtreeSize = 1;
+
+    /**
+     * Atomically adjusts {@link Collectible#subtreeSize}, so that concurrent changes in sibling subtrees are not lost
+     * when they both reach a shared ancestor
+     */
+    private static final AtomicLongFieldUpdater<Collectible> SUBTREE_SIZE =
+            AtomicLongFieldUpdater.newUpdater(Collectible.class, "subtreeSize");
+
     /**
      * Returns the iterator for the current collection.  The iterator also follows the Singleton pattern; once the
      * iterator has been declared and initialized, the already-declared one will be returned.  If the iterator has
@@ -64,6 +111,7 @@ public abstract class Collectible {
      * @return  the iterator for the Collectible
      */
     public CollectionIterator getIterator() {
+        beforeRead();
         if (iterator == null) {
             this.iterator = new CollectionIterator(this);
         }
@@ -83,7 +131,8 @@ public abstract class Collectible {
      * </ul>
      * Note that if the current Collectible is actually a {@link cscie97.asn4.ecommerce.collection.DynamicCollection},
      * this method will still return the found {@link cscie97.asn4.ecommerce.collection.ContentProxy} objects that
-     * are found by executing the search (no need to separately execute the search).
+     * are found by executing the search (no need to separately execute the search).  The list returned is a read-only
+     * snapshot, which later additions and removals do not change.
      *
      * @return  the list of child {@link cscie97.asn4.ecommerce.collection.ContentProxy} objects contained in
      *          the current Collectible
@@ -92,16 +141,181 @@ public abstract class Collectible {
         return this.children;
     }
 
+    /**
+     * Returns the children as they stand, for the structural walks of this package: iterators, spliterators, and the
+     * catalog's own indexing.  Unlike {@link Collectible#getChildren()}, this never runs the search of a lazy
+     * {@link cscie97.asn4.ecommerce.collection.DynamicCollection}.
+     *
+     * @return  the list of child Collectibles
+     */
+    List<Collectible> getTraversalChildren() {
+        return this.children;
+    }
+
+    /**
+     * Called by the public methods that read the children of this Collectible, or start a traversal of it, before
+     * they do so.  Does nothing here; a {@link cscie97.asn4.ecommerce.collection.DynamicCollection} overrides it to
+     * bring a lazy search up to date.
+     */
+    void beforeRead() { }
+
     /**
      * Adds a child Collectible to the current Collectible.  Since the children of the current Collectible will
      * be modified as a result, a side effect of adding a new Collectible is to null out the current iterator (so
-     * that the next time a client wishes to iterate over the Collectible the new item will be included).
+     * that the next time a client wishes to iterate over the Collectible the new item will be included).  A child
+     * with the same ID as one already present is rejected; the check is a hash lookup, however many children there
+     * are.
      *
      * @param collectible  the new Collectible to be added to the Collectible
+     * @return  true if the Collectible was added, false if a child with the same ID was already present
      */
-    public void add(Collectible collectible) {
+    public boolean add(Collectible collectible) {
+        return !this.addChildren(Collections.singletonList(collectible)).isEmpty();
+    }
+
+    /**
+     * Adds several children at once, as {@link Collectible#add(Collectible)} would add each of them in turn, but
+     * publishing the new children to readers only once.
+     *
+     * @param added  the new children, in the order to add them
+     * @return  the children that were added; a child whose ID was already present, or appears earlier in added, is
+     *          left out
+     */
+    synchronized List<Collectible> addChildren(List<? extends Collectible> added) {
+        List<Collectible> accepted = new ArrayList<Collectible>(added.size());
+        for (Collectible collectible : added) {
+            if (collectible == null || collectible.getId() == null || this.childIDs.add(collectible.getId())) {
+                accepted.add(collectible);
+            }
+        }
+        if (accepted.isEmpty()) {
+            return accepted;
+        }
         this.iterator = null;  // since we're modifying the collection, ensure that the next time the iterator is referenced it is re-created
-        children.add(collectible);
+        this.children = this.children.append(accepted);
+        this.modCount++;
+        for (Collectible collectible : accepted) {
+            if (collectible != null) {
+                collectible.parents.add(this);
+                this.adjustSubtreeSize(collectible.subtreeSize);
+                if (collectible instanceof ContentProxy && this instanceof Collection) {
+                    ContentMembershipIndex.getInstance().contentAdded(collectible.getId(), (Collection) this);
+                }
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Removes the given children from this Collectible in a single pass, keeping the order of the rest.  Like
+     * {@link Collectible#add(Collectible)}, this invalidates any iterator in progress over this Collectible.
+     *
+     * @param removed  the children to remove, compared by identity
+     */
+    synchronized void removeChildren(Set<Collectible> removed) {
+        long removedSize = 0;
+        ChildList current = this.children;
+        List<Collectible> updated = new ArrayList<Collectible>(current.size());
+        for (Collectible child : current) {
+            if (child == null || !removed.contains(child)) {
+                updated.add(child);
+            }
+            else {
+                if (child.getId() != null) {
+                    this.childIDs.remove(child.getId());
+                }
+                child.parents.remove(this);
+                if (child instanceof ContentProxy && this instanceof Collection) {
+                    ContentMembershipIndex.getInstance().contentRemoved(child.getId(), (Collection) this);
+                }
+                removedSize += child.subtreeSize;
+            }
+        }
+        this.iterator = null;
+        this.children = ChildList.EMPTY.append(updated);
+        this.modCount++;
+        if (removedSize > 0) {
+            this.adjustSubtreeSize(-removedSize);
+        }
+    }
+
+    /**
+     * Adds delta (which may be negative) to the subtree size of this Collectible and of every Collectible above it.  Each one is adjusted
+     * only once, even if it is reachable along several paths or the Collections form a cycle.
+     *
+     * @param delta  the number of items added beneath this Collectible
+     */
+    private void adjustSubtreeSize(long delta) {
+        if (this.parents.isEmpty()) {
+            SUBTREE_SIZE.addAndGet(this, delta);
+            return;
+        }
+        Set<Collectible> visited = Collections.newSetFromMap(new IdentityHashMap<Collectible, Boolean>());
+        List<Collectible> pending = new ArrayList<Collectible>();
+        pending.add(this);
+        while (!pending.isEmpty()) {
+            Collectible current = pending.remove(pending.size() - 1);
+            if (!visited.add(current)) {
+                continue;
+            }
+            SUBTREE_SIZE.addAndGet(current, delta);
+            pending.addAll(current.parents);
+        }
+    }
+
+    /**
+     * Returns the number of items a {@link cscie97.asn4.ecommerce.collection.CollectionIterator} over this
+     * Collectible would return, including this Collectible itself.  The count is maintained as children are added,
+     * so this takes constant time.  It is exact for a tree; when a Collection shared by several parents gains
+     * children, or the Collections form a cycle, it is an estimate.
+     *
+     * @return  the number of Collectibles in this subtree
+     */
+    public long getSubtreeSize() {
+        return this.subtreeSize;
+    }
+
+    /**
+     * Returns a {@link java.util.Spliterator} over this Collectible and everything beneath it, which splits at child
+     * boundaries for parallel processing.
+     *
+     * @return  a new spliterator over this subtree
+     * @see cscie97.asn4.ecommerce.collection.CollectibleSpliterator
+     */
+    public Spliterator<Collectible> spliterator() {
+        beforeRead();
+        return new CollectibleSpliterator(this);
+    }
+
+    /**
+     * Returns a stream of this Collectible and everything beneath it, in the same order as a
+     * {@link cscie97.asn4.ecommerce.collection.CollectionIterator}.
+     *
+     * @param parallel  true for a parallel stream, which divides the subtree between threads
+     * @return  a new stream over this subtree
+     */
+    public Stream<Collectible> stream(boolean parallel) {
+        return StreamSupport.stream(this.spliterator(), parallel);
+    }
+
+    /**
+     * Returns every Collectible this one has been added to as a child.
+     *
+     * @return  the parents of this Collectible; empty if it has never been added to one
+     */
+    List<Collectible> getParents() {
+        return this.parents;
+    }
+
+    /**
+     * Returns the number of times the children of this Collectible have changed, so that a
+     * {@link cscie97.asn4.ecommerce.collection.CollectionIterator} can tell whether the children have changed since
+     * it started traversing them.
+     *
+     * @return  the modification count
+     */
+    int getModCount() {
+        return this.modCount;
     }
 
     /**
@@ -172,4 +386,51 @@ public abstract class Collectible {
                 this.getDescription());
     }
 
+    /**
+     * Read-only view of the first size elements of an array of children.  Elements past the end of the view may be
+     * written by a later {@link ChildList#append(List)}, which the view never looks at, so appending only copies the
+     * array when it is full.
+     */
+    private static final class ChildList extends AbstractList<Collectible> implements RandomAccess {
+
+        private static final ChildList EMPTY = new ChildList(new Collectible[0], 0);
+
+        private final Collectible[] elements;
+        private final int size;
+
+        private ChildList(Collectible[] elements, int size) {
+            this.elements = elements;
+            this.size = size;
+        }
+
+        /**
+         * Returns a view with the added children after these ones.  Only called on the current view of a Collectible,
+         * while holding its lock.
+         */
+        private ChildList append(List<Collectible> added) {
+            int newSize = this.size + added.size();
+            Collectible[] target = this.elements;
+            if (newSize > target.length) {
+                target = Arrays.copyOf(target, Math.max(newSize, target.length + (target.length >> 1) + 4));
+            }
+            for (int i = 0; i < added.size(); i++) {
+                target[this.size + i] = added.get(i);
+            }
+            return new ChildList(target, newSize);
+        }
+
+        @Override
+        public Collectible get(int index) {
+            if (index < 0 || index >= this.size) {
+                throw new IndexOutOfBoundsException("index " + index + ", size " + this.size);
+            }
+            return this.elements[index];
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+    }
+
 }
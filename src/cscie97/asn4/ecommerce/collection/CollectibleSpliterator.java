@@ -0,0 +1,214 @@
+package cscie97.asn4.ecommerce.collection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A {@link java.util.Spliterator} over a {@link cscie97.asn4.ecommerce.collection.Collectible} and everything beneath
+ * it, so that a large Collection hierarchy can be processed by a parallel {@link java.util.stream.Stream} (see
+ * {@link cscie97.asn4.ecommerce.collection.Collectible#stream(boolean)}).  It returns the same items, in the same
+ * order, as a {@link cscie97.asn4.ecommerce.collection.CollectionIterator} over the same Collectible.
+ *
+ * Splitting happens at child boundaries: a Collection is broken up into its individual children's subtrees (plus
+ * the Collection itself), and those are divided between the two halves so that each gets about the same number of
+ * items, judged by {@link cscie97.asn4.ecommerce.collection.Collectible#getSubtreeSize()}.  Each half then walks its
+ * subtrees with an ordinary, lazy CollectionIterator.
+ *
+ * @author David Killeffer &lt;rayden7@gmail.com&gt;
+ * @version 1.0
+ * @see cscie97.asn4.ecommerce.collection.Collectible
+ * @see cscie97.asn4.ecommerce.collection.CollectionIterator
+ */
+public class CollectibleSpliterator implements Spliterator<Collectible> {
+
+    /**
+     * Subtrees smaller than this are walked sequentially rather than split further
+     */
+    private static final long SEQUENTIAL_THRESHOLD = 64;
+
+    /**
+     * A unit of work: either a Collectible and everything beneath it, or just the Collectible itself.
+     */
+    private static final class Entry {
+        private final Collectible node;
+        private final boolean wholeSubtree;
+
+        /**
+         * The Collections above node on the path from the top of the traversal; node must not descend into these
+         */
+        private final List<Collectible> ancestors;
+
+        private Entry(Collectible node, boolean wholeSubtree, List<Collectible> ancestors) {
+            this.node = node;
+            this.wholeSubtree = wholeSubtree;
+            this.ancestors = ancestors;
+        }
+
+        private long estimateSize() {
+            return (this.wholeSubtree && this.node != null) ? this.node.getSubtreeSize() : 1;
+        }
+    }
+
+    /**
+     * The entries this spliterator covers are those from next (inclusive) to end (exclusive); the list may be shared
+     * with the spliterator it was split from, which covers a different range
+     */
+    private List<Entry> entries;
+    private int next;
+    private int end;
+
+    /**
+     * Walks the entry most recently started, or null if none is in progress
+     */
+    private CollectionIterator active = null;
+
+    /**
+     * Estimated number of items the active iterator has yet to return
+     */
+    private long activeRemaining = 0;
+
+    /**
+     * Class constructor.
+     *
+     * @param top  the Collectible to traverse, along with everything beneath it
+     */
+    public CollectibleSpliterator(Collectible top) {
+        this.entries = new ArrayList<Entry>(1);
+        this.entries.add(new Entry(top, true, Collections.<Collectible>emptyList()));
+        this.next = 0;
+        this.end = 1;
+    }
+
+    private CollectibleSpliterator(CollectionIterator active, long activeRemaining, List<Entry> entries, int next, int end) {
+        this.active = active;
+        this.activeRemaining = activeRemaining;
+        this.entries = entries;
+        this.next = next;
+        this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Collectible> action) {
+        while (true) {
+            if (this.active != null) {
+                if (this.active.hasNext()) {
+                    Collectible collectible = this.active.next();
+                    if (this.activeRemaining > 0) {
+                        this.activeRemaining--;
+                    }
+                    action.accept(collectible);
+                    return true;
+                }
+                this.active = null;
+                this.activeRemaining = 0;
+            }
+            if (this.next >= this.end) {
+                return false;
+            }
+            Entry entry = this.entries.get(this.next++);
+            if (!entry.wholeSubtree) {
+                action.accept(entry.node);
+                return true;
+            }
+            this.active = new CollectionIterator(entry.node, entry.ancestors);
+            this.activeRemaining = entry.estimateSize();
+        }
+    }
+
+    /**
+     * Hands roughly the first half of the remaining items to a new spliterator.  If one subtree that has not been
+     * started holds most of the remaining items, it is first broken up into its children's subtrees.
+     *
+     * @return  a spliterator covering the first part of the remaining items, or null if they cannot be usefully split
+     */
+    @Override
+    public Spliterator<Collectible> trySplit() {
+        long total = estimateSize();
+        if (total < SEQUENTIAL_THRESHOLD) {
+            return null;
+        }
+
+        // a subtree holding most of the items cannot be balanced against the rest, so split it up first
+        int largest = -1;
+        long largestSize = 0;
+        for (int i = this.next; i < this.end; i++) {
+            long size = this.entries.get(i).estimateSize();
+            if (size > largestSize) {
+                largest = i;
+                largestSize = size;
+            }
+        }
+        if (largest >= 0 && largestSize > total / 2) {
+            expand(largest);
+        }
+        if (this.next >= this.end || (this.active == null && this.end - this.next < 2)) {
+            return null;
+        }
+
+        // give the prefix entries until it holds about half the estimated items, always leaving at least one behind
+        long half = estimateSize() / 2;
+        long prefixSize = this.activeRemaining;
+        int split = this.next;
+        while (split < this.end - 1 && (prefixSize < half || (split == this.next && this.active == null))) {
+            prefixSize += this.entries.get(split).estimateSize();
+            split++;
+        }
+
+        CollectibleSpliterator prefix = new CollectibleSpliterator(this.active, this.activeRemaining, this.entries, this.next, split);
+        this.active = null;
+        this.activeRemaining = 0;
+        this.next = split;
+        return prefix;
+    }
+
+    /**
+     * Replaces a whole-subtree entry with one entry per child, in the order a CollectionIterator returns them, followed
+     * by the Collection itself.  The entries around it are kept in place.
+     *
+     * @param index  the position of the entry to break up
+     */
+    private void expand(int index) {
+        Entry entry = this.entries.get(index);
+        List<Collectible> children = entry.wholeSubtree ? entry.node.getTraversalChildren() : null;
+        if (children == null || children.isEmpty()) {
+            return;
+        }
+        List<Collectible> path = new ArrayList<Collectible>(entry.ancestors.size() + 1);
+        path.addAll(entry.ancestors);
+        path.add(entry.node);
+        path = Collections.unmodifiableList(path);
+
+        List<Entry> expanded = new ArrayList<Entry>(this.end - this.next + children.size());
+        expanded.addAll(this.entries.subList(this.next, index));
+        for (int i = children.size() - 1; i >= 0; i--) {
+            Collectible child = children.get(i);
+            // a child that is also an ancestor is returned, but not descended into again
+            boolean descend = child instanceof Collection && !path.contains(child);
+            expanded.add(new Entry(child, descend, path));
+        }
+        expanded.add(new Entry(entry.node, false, path));
+        expanded.addAll(this.entries.subList(index + 1, this.end));
+
+        this.entries = expanded;
+        this.next = 0;
+        this.end = expanded.size();
+    }
+
+    @Override
+    public long estimateSize() {
+        long size = this.activeRemaining;
+        for (int i = this.next; i < this.end; i++) {
+            size += this.entries.get(i).estimateSize();
+        }
+        return size;
+    }
+
+    @Override
+    public int characteristics() {
+        return Spliterator.ORDERED;
+    }
+
+}
@@ -11,6 +11,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Provides a single public method for handling the creation of new {@link cscie97.asn4.ecommerce.collection.Collection}s,
@@ -287,6 +288,9 @@ public class CollectionImporter extends Importer {
                 }
             }
 
+            // let any dynamic collection searches queued by the import finish before reading the results
+            CollectionServiceAPI.getInstance().getRefreshScheduler().awaitIdle(1, TimeUnit.MINUTES);
+
             // lastly, exercise iterating over ALL the collections
             System.out.println(String.format("\n******************************\n"));
             System.out.println("ITERATING OVER ALL COLLECTIONS...\n\n");
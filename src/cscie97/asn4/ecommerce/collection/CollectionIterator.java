@@ -1,8 +1,11 @@
 package cscie97.asn4.ecommerce.collection;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.Stack;
 
 /**
  * Allows for the iteration of {@link cscie97.asn4.ecommerce.collection.Collectible} items.
@@ -20,6 +23,14 @@ import java.util.Stack;
  * depth, making this iterator necessary to traverse a Collection.  This iterator will traverse the Collectible
  * depth-first.
  *
+ * The traversal is lazy: the iterator keeps one cursor per level of the tree it is currently inside, and only walks
+ * as far as {@link CollectionIterator#next()} is called, so its memory use is proportional to the depth of the tree
+ * rather than its size.  Each Collection's children are returned last-added first, followed by the Collection itself.
+ * The iterator is fail-fast: if a Collectible it has not finished traversing gains a child through
+ * {@link cscie97.asn4.ecommerce.collection.Collectible#add(Collectible)}, the next call to
+ * {@link CollectionIterator#next()} throws a {@link java.util.ConcurrentModificationException}.  A Collection that
+ * contains one of its own ancestors is returned, but not descended into again.
+ *
  * @author David Killeffer &lt;rayden7@gmail.com&gt;
  * @version 1.0
  * @see cscie97.asn4.ecommerce.collection.Collectible
@@ -28,12 +39,37 @@ import java.util.Stack;
  * @see cscie97.asn4.ecommerce.collection.DynamicCollection
  * @see cscie97.asn4.ecommerce.collection.StaticCollection
  */
-public class CollectionIterator implements Iterator {
+public class CollectionIterator implements Iterator<Collectible> {
+
+    /**
+     * Position within one Collectible whose children are being traversed.
+     */
+    private static final class Cursor {
+        private final Collectible node;
+        private final List<Collectible> children;
+        private final int expectedModCount;
+        private int next;
+
+        private Cursor(Collectible node) {
+            this.node = node;
+            // read the count first: a change that lands in between is then reported, never missed
+            this.expectedModCount = node.getModCount();
+            this.children = node.getTraversalChildren();
+            // children are returned last-added first
+            this.next = (this.children == null) ? -1 : this.children.size() - 1;
+        }
+    }
+
+    /**
+     * One cursor for each Collectible on the path from the top of the traversal to the item being visited.
+     */
+    private List<Cursor> cursors = new ArrayList<Cursor>();
 
     /**
-     * Private stack is used to "flatten" the tree structure of the Collection and return items in depth-first order.
+     * Collections above the top of this traversal that it must not descend into, when it covers only part of a
+     * larger traversal
      */
-    private Stack<Collectible> itemStack = new Stack<Collectible>();
+    private final List<Collectible> ancestors;
 
     /**
      * Keeps a reference to the current item that the hidden internal iterator "pointer" is positioned over.
@@ -42,13 +78,25 @@ public class CollectionIterator implements Iterator {
 
     /**
      * Class constructor.  Takes a reference to the "top" level of the
-     * {@link cscie97.asn4.ecommerce.collection.Collectible} to be iterated over.
+     * {@link cscie97.asn4.ecommerce.collection.Collectible} to be iterated over.  Does not traverse anything until
+     * {@link CollectionIterator#next()} is called.
      *
      * @param top  the Collectible to iterate over
      */
     public CollectionIterator(Collectible top) {
-        this.itemStack.push(top);
-        buildItemStack(top);
+        this(top, Collections.<Collectible>emptyList());
+    }
+
+    /**
+     * Class constructor used by {@link cscie97.asn4.ecommerce.collection.CollectibleSpliterator} to walk one part of
+     * a larger traversal.
+     *
+     * @param top        the Collectible to iterate over
+     * @param ancestors  the Collections above top in the larger traversal
+     */
+    CollectionIterator(Collectible top, List<Collectible> ancestors) {
+        this.ancestors = ancestors;
+        this.cursors.add(new Cursor(top));
     }
 
     /**
@@ -64,25 +112,54 @@ public class CollectionIterator implements Iterator {
     }
 
     /**
-     * Traverse the Collectible and return the next item.
+     * Traverse the Collectible and return the next item.  Descends into child Collections as needed until the next
+     * item is found.
      *
      * @return  the next Collectible in the Collection
+     * @throws ConcurrentModificationException  if a Collectible still being traversed was modified since the
+     *                                          iterator reached it
      */
+    @Override
     public Collectible next() {
         if (!hasNext()) {
             throw new NoSuchElementException("no more items!");
         }
-        current = itemStack.pop();
-        return current;
+        while (true) {
+            Cursor cursor = this.cursors.get(this.cursors.size() - 1);
+            if (cursor.node.getModCount() != cursor.expectedModCount) {
+                throw new ConcurrentModificationException("collection [" + cursor.node.getId() + "] was modified during iteration");
+            }
+            if (cursor.next < 0) {
+                // every child has been returned, so the Collectible itself comes next
+                this.cursors.remove(this.cursors.size() - 1);
+                current = cursor.node;
+                return current;
+            }
+            Collectible child = cursor.children.get(cursor.next--);
+            if ((child instanceof StaticCollection || child instanceof DynamicCollection) && !isOnPath(child)) {
+                this.cursors.add(new Cursor(child));
+            }
+            else {
+                current = child;
+                return current;
+            }
+        }
     }
 
-    private void buildItemStack(Collectible item) {
-        for (Collectible curChild : item.getChildren()) {
-            itemStack.push(curChild);
-            if (curChild instanceof StaticCollection || curChild instanceof DynamicCollection) {
-                buildItemStack(curChild);
+    /**
+     * Checks whether the Collectible is already being traversed further up the tree, which means the tree contains a
+     * cycle at this point.
+     *
+     * @param collectible  the Collectible about to be descended into
+     * @return  true if the Collectible is an ancestor of the current position, false otherwise
+     */
+    private boolean isOnPath(Collectible collectible) {
+        for (Cursor cursor : this.cursors) {
+            if (cursor.node == collectible) {
+                return true;
             }
         }
+        return this.ancestors.contains(collectible);
     }
 
     /**
@@ -90,15 +167,18 @@ public class CollectionIterator implements Iterator {
      *
      * @return  true if there are more elements to traverse, false otherwise
      */
+    @Override
     public boolean hasNext() {
-        return !this.itemStack.empty();
+        // the top Collectible is always returned last, so items remain as long as any cursor does
+        return !this.cursors.isEmpty();
     }
 
     /**
      * Currently do not support remove, as it was not specified as a requirement in the original requirements document.
      */
+    @Override
     public void remove() {
         throw new UnsupportedOperationException();
     }
 
-}
\ No newline at end of file
+}
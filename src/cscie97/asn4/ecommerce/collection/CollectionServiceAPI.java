@@ -3,11 +3,23 @@ package cscie97.asn4.ecommerce.collection;
 import cscie97.asn4.ecommerce.authentication.AuthenticationServiceAPI;
 import cscie97.asn4.ecommerce.authentication.IAuthenticationServiceAPI;
 import cscie97.asn4.ecommerce.authentication.PermissionType;
+import cscie97.asn4.ecommerce.product.Content;
+import cscie97.asn4.ecommerce.product.ContentListener;
 import cscie97.asn4.ecommerce.product.ContentSearch;
+import cscie97.asn4.ecommerce.product.ContentSearchBatch;
+import cscie97.asn4.ecommerce.product.ProductAPI;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 /**
  * Implements the {@link cscie97.asn4.ecommerce.collection.ICollectionServiceAPI} class to provide public methods for
@@ -41,6 +53,29 @@ public class CollectionServiceAPI implements ICollectionServiceAPI {
      */
     private Set<Collection> topLevelCollections = new HashSet<Collection>();
 
+    /**
+     * A "virtual" root collection that has every top-level collection as a child, so that the entire catalog can be
+     * traversed from a single Collectible
+     */
+    private Collection virtualRoot;
+
+    /**
+     * Every Collection in the catalog, at any depth, keyed by its lower-cased ID so that lookups are case-insensitive;
+     * when several Collections share an ID, the first one added is kept
+     */
+    private ConcurrentMap<String, Collection> collectionsByID = new ConcurrentHashMap<String, Collection>();
+
+    /**
+     * Every DynamicCollection in the catalog, at any depth, so that all of their searches can be evaluated together
+     */
+    private Set<DynamicCollection> dynamicCollections = Collections.newSetFromMap(new ConcurrentHashMap<DynamicCollection, Boolean>());
+
+    /**
+     * Refreshes DynamicCollections in the background on a pool sized to half the processors, so that defining search
+     * criteria and importing content do not wait for searches
+     */
+    private RefreshScheduler refreshScheduler = new RefreshScheduler(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
     /**
      * Singleton instance of the CollectionServiceAPI
      */
@@ -52,6 +87,13 @@ public class CollectionServiceAPI implements ICollectionServiceAPI {
     private CollectionServiceAPI() {
         this.topLevelCollections = new HashSet<Collection>() { };
         this.authenticationAPI = AuthenticationServiceAPI.getInstance();
+        this.virtualRoot = this.createVirtualRoot();
+        ProductAPI.getInstance().addContentListener(new ContentListener() {
+            @Override
+            public void contentAdded(List<Content> addedContent) {
+                refreshDynamicCollections(addedContent);
+            }
+        });
     }
 
     /**
@@ -67,11 +109,11 @@ public class CollectionServiceAPI implements ICollectionServiceAPI {
     }
 
     /**
-     * To iterate over all the collections in the CollectionServiceAPI catalog, a "virtual" root collection must be
-     * created, and all current topLevelCollections added to it.  The virtual root collection will then be able to
-     * iterate over every single collection and content item in the entire Collection catalog.  This method will
-     * construct that virtual root collection, add all the top-level collections to it, and then returns the virtual
-     * root.
+     * To iterate over all the collections in the CollectionServiceAPI catalog, a "virtual" root collection is
+     * created once, and every top-level collection is added to it as it is added to the catalog.  The virtual root
+     * collection will then be able to iterate over every single collection and content item in the entire Collection
+     * catalog.  This method will construct that virtual root collection, add all the current top-level collections
+     * to it, and then returns the virtual root.
      *
      * @return  a virtual root Collection that has all current topLevelCollections as children
      */
@@ -86,6 +128,79 @@ public class CollectionServiceAPI implements ICollectionServiceAPI {
         return virtual;
     }
 
+    /**
+     * Adds the Collection, and every Collection nested beneath it, to the ID index, and tracks each DynamicCollection
+     * among them so that its search results are kept current as content is imported.  Each Collection is visited only once,
+     * even if it appears more than once in the subtree.
+     *
+     * @param collectible  the newly added Collectible; ContentProxy items are ignored
+     */
+    private void indexCollections(Collectible collectible) {
+        List<Collectible> pending = new ArrayList<Collectible>();
+        Set<Collectible> visited = Collections.newSetFromMap(new IdentityHashMap<Collectible, Boolean>());
+        pending.add(collectible);
+        while (!pending.isEmpty()) {
+            Collectible current = pending.remove(pending.size() - 1);
+            if (!(current instanceof Collection) || !visited.add(current)) {
+                continue;
+            }
+            if (current.getId() != null) {
+                this.collectionsByID.putIfAbsent(indexKey(current.getId()), (Collection) current);
+            }
+            if (current instanceof DynamicCollection) {
+                // keep the collection's search results current as content is imported
+                this.dynamicCollections.add((DynamicCollection) current);
+            }
+            pending.addAll(current.getTraversalChildren());
+        }
+    }
+
+    /**
+     * Tests newly imported content against the search criteria of every eager DynamicCollection in the catalog, in
+     * a single pass over the new items, and has the matches added to each collection in the background.
+     *
+     * @param addedContent  the content items just added to the product catalog
+     */
+    private void refreshDynamicCollections(List<Content> addedContent) {
+        List<DynamicCollection> collections = new ArrayList<DynamicCollection>();
+        List<ContentSearch> searches = new ArrayList<ContentSearch>();
+        collectEagerSearches(collections, searches);
+        if (!searches.isEmpty()) {
+            List<List<Content>> matches = new ContentSearchBatch(searches).evaluate(addedContent);
+            for (int i = 0; i < collections.size(); i++) {
+                if (!matches.get(i).isEmpty()) {
+                    this.refreshScheduler.requestAdditions(collections.get(i), searches.get(i), matches.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the DynamicCollections in the catalog that are eager (not lazy) and have search criteria.
+     *
+     * @param collections  receives the collections
+     * @param searches     receives each collection's search criteria, in the same order
+     */
+    private void collectEagerSearches(List<DynamicCollection> collections, List<ContentSearch> searches) {
+        for (DynamicCollection collection : this.dynamicCollections) {
+            ContentSearch criteria = collection.getSearchCriteria();
+            if (!collection.isLazy() && criteria != null) {
+                collections.add(collection);
+                searches.add(criteria);
+            }
+        }
+    }
+
+    /**
+     * Returns the key under which a Collection ID is indexed.
+     *
+     * @param collectionID  the Collection ID
+     * @return  the ID in lower case
+     */
+    private static String indexKey(String collectionID) {
+        return collectionID.toLowerCase();
+    }
+
 
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     // begin region: implementing methods from ICollectionServiceAPI (yes, I got used to having these in C#)
@@ -105,6 +220,8 @@ public class CollectionServiceAPI implements ICollectionServiceAPI {
             // ensure the collection is valid and that it doesn't already exist at the top level
             if (collection != null && Collection.validateCollection(collection) && !this.topLevelCollections.contains(collection)) {
                 this.topLevelCollections.add(collection);
+                this.virtualRoot.add(collection);
+                this.indexCollections(collection);
             }
         }
     }
@@ -113,8 +230,8 @@ public class CollectionServiceAPI implements ICollectionServiceAPI {
      * Restricted interface; will validate GUID token before adding content to a collection.  Looks up the
      * {@link cscie97.asn4.ecommerce.collection.Collection} with matching collectionId in the catalog and then adds
      * the passed {@link cscie97.asn4.ecommerce.collection.Collectible} to that
-     * {@link cscie97.asn4.ecommerce.collection.Collection}.  Note that
-     * {@link cscie97.asn4.ecommerce.collection.Collectible}s may be either
+     * {@link cscie97.asn4.ecommerce.collection.Collection}, unless the Collection already has a child with the same
+     * ID.  Note that {@link cscie97.asn4.ecommerce.collection.Collectible}s may be either
      * {@link cscie97.asn4.ecommerce.collection.ContentProxy} items (which wrap
      * {@link cscie97.asn4.ecommerce.product.Content} items that are returned by the
      * {@link cscie97.asn4.ecommerce.product.IProductAPI}, or {@link cscie97.asn4.ecommerce.collection.Collection}
@@ -132,22 +249,18 @@ public class CollectionServiceAPI implements ICollectionServiceAPI {
     public void addContentToCollection(String tokenID, String collectionId, Collectible collectible) {
         if (authenticationAPI.mayAccess(tokenID, PermissionType.ADD_CONTENT)) {
             Collection foundCollection = this.getCollectionByID(collectionId);
-            if (foundCollection != null) {
-                List<String> preexistingIDs = new ArrayList<String>();
-                CollectionIterator iterator = foundCollection.getIterator();
-                while (iterator.hasNext()) {
-                    Collectible currentCollectible = iterator.next();
-                    preexistingIDs.add(currentCollectible.getId());
-                }
-                foundCollection.add(collectible);
+            // a Collectible with the same ID as an existing child of the Collection is not added again
+            if (foundCollection != null && foundCollection.add(collectible)) {
+                this.indexCollections(collectible);
             }
         }
     }
 
     /**
      * Given a collection ID, search for any {@link cscie97.asn4.ecommerce.collection.Collection} that matches that
-     * code in the collection catalog.  Constructs a private virtual "root" collection and sets all current top-level
-     * collections as it's children so that it can iterate over every collection in the catalog to find the one that matches.
+     * code in the collection catalog.  Every Collection added to the catalog, whether at the top level or nested in
+     * another Collection, is indexed by ID, so the lookup takes constant time regardless of the size of the catalog.
+     * The match is case-insensitive.
      *
      * @param collectionID  the unique collection ID to find the actual {@link cscie97.asn4.ecommerce.collection.Collection}
      * @return              the found {@link cscie97.asn4.ecommerce.collection.Collection} with the matching ID;
@@ -155,15 +268,10 @@ public class CollectionServiceAPI implements ICollectionServiceAPI {
      */
     @Override
     public Collection getCollectionByID(String collectionID) {
-        Collection virtual = this.createVirtualRoot();
-        CollectionIterator iterator = virtual.getIterator();
-        while (iterator.hasNext()) {
-            Collectible collectible = iterator.next();
-            if (collectible.getId().equalsIgnoreCase(collectionID) && collectible instanceof Collection) {
-                return (Collection)collectible;
-            }
+        if (collectionID == null) {
+            return null;
         }
-        return null;
+        return this.collectionsByID.get(indexKey(collectionID));
     }
 
     /**
@@ -186,10 +294,9 @@ public class CollectionServiceAPI implements ICollectionServiceAPI {
         Collection collection = this.getCollectionByID(collectionId);
         if (collection != null) {
             return collection.getIterator();
-        } else {
-            collection = this.createVirtualRoot();
         }
-        return collection.getIterator();
+        // a fresh iterator, since the virtual root's own iterator is shared by every caller
+        return new CollectionIterator(this.virtualRoot);
     }
 
     /**
@@ -198,32 +305,112 @@ public class CollectionServiceAPI implements ICollectionServiceAPI {
      * {@link cscie97.asn4.ecommerce.collection.Collection#description} contains any part of the searchCriteria passed.
      * Note that the search is case-insensitive.
      *
-     * To conduct the search, constructs a virtual "root" Collection that has all the top-level Collections as
-     * immediate children, and then iterates over all the {@link cscie97.asn4.ecommerce.collection.Collectible}s in
-     * this virtual Collection aggregate and finds matching {@link cscie97.asn4.ecommerce.collection.Collection}s.
+     * To conduct the search, streams every {@link cscie97.asn4.ecommerce.collection.Collectible} beneath the
+     * virtual "root" Collection that has all the top-level Collections as immediate children, and keeps the matching
+     * {@link cscie97.asn4.ecommerce.collection.Collection}s.  The stream is parallel, so a large catalog is searched
+     * on several cores at once.
      *
      * @param searchCriteria  text to find in all Collections name or description
      * @return                unique set of Collections that match any part of the searchCriteria
      */
     @Override
     public Set<Collection> searchCollections(String searchCriteria) {
-        Collection virtual = this.createVirtualRoot();
-        CollectionIterator iterator = virtual.getIterator();
-        Set<Collection> matchingCollections = new HashSet<Collection>();
+        // blank criteria match every collection
+        final String searchText = (searchCriteria == null) ? "" : searchCriteria.trim().toLowerCase();
 
-        while (iterator.hasNext()) {
-            Collectible currentCollectible = iterator.next();
-            if (!(currentCollectible instanceof StaticCollection) && !(currentCollectible instanceof DynamicCollection)) {
-                continue;
+        return this.virtualRoot.stream(true)
+                .filter(new Predicate<Collectible>() {
+                    @Override
+                    public boolean test(Collectible collectible) {
+                        return (collectible instanceof StaticCollection || collectible instanceof DynamicCollection) &&
+                               (searchText.length() == 0 || collectible.getName().toLowerCase().contains(searchText));
+                    }
+                })
+                .map(new Function<Collectible, Collection>() {
+                    @Override
+                    public Collection apply(Collectible collectible) {
+                        return (Collection) collectible;
+                    }
+                })
+                .collect(Collectors.<Collection>toSet());
+    }
+
+    /**
+     * Finds every {@link cscie97.asn4.ecommerce.collection.Collection} in the catalog that contains the
+     * {@link cscie97.asn4.ecommerce.product.Content} item, either directly or through a Collection nested inside it.
+     * The Collections directly containing the item come from the
+     * {@link cscie97.asn4.ecommerce.collection.ContentMembershipIndex}; the rest are found by walking up from those
+     * through each Collection's parents.  Collections that are not in the catalog are left out.  The searches of lazy
+     * {@link cscie97.asn4.ecommerce.collection.DynamicCollection}s are not run, so a lazy collection appears only if
+     * it has been read since the item was imported.
+     *
+     * @param contentID  the ID of the Content item
+     * @return  the Collections directly containing the item, followed by the Collections above them; empty if none
+     */
+    @Override
+    public Set<Collection> getCollectionsContaining(String contentID) {
+        Set<Collection> containing = new LinkedHashSet<Collection>();
+        if (contentID == null) {
+            return containing;
+        }
+        List<Collectible> pending = new ArrayList<Collectible>();
+        for (Collection direct : ContentMembershipIndex.getInstance().getDirectCollections(contentID)) {
+            if (this.isInCatalog(direct)) {
+                containing.add(direct);
+                pending.add(direct);
             }
-            if ((searchCriteria != null && searchCriteria.length() > 0) && currentCollectible.getName().toLowerCase().contains(searchCriteria.trim().toLowerCase())) {
-                matchingCollections.add((Collection)currentCollectible);
+        }
+        // breadth-first, so nearer Collections come first; each Collection is visited once, even in a cycle
+        for (int i = 0; i < pending.size(); i++) {
+            List<Collectible> parents = pending.get(i).getParents();
+            for (int p = 0; p < parents.size(); p++) {
+                Collectible parent = parents.get(p);
+                if (parent instanceof Collection && this.isInCatalog((Collection) parent) && containing.add((Collection) parent)) {
+                    pending.add(parent);
+                }
             }
-            else if (searchCriteria == null || searchCriteria.length() == 0) {
-                matchingCollections.add((Collection)currentCollectible);
+        }
+        return containing;
+    }
+
+    /**
+     * Checks whether the Collection is the one indexed in the catalog under its ID; false for the virtual root and
+     * for Collections that were never added to the catalog.
+     */
+    private boolean isInCatalog(Collection collection) {
+        return collection.getId() != null && this.collectionsByID.get(indexKey(collection.getId())) == collection;
+    }
+
+    /**
+     * Returns the scheduler that refreshes DynamicCollections in the background, which exposes queue depth and
+     * staleness metrics.
+     *
+     * @return  the DynamicCollection refresh scheduler
+     */
+    @Override
+    public RefreshScheduler getRefreshScheduler() {
+        return this.refreshScheduler;
+    }
+
+    /**
+     * Re-runs the search of every eager {@link cscie97.asn4.ecommerce.collection.DynamicCollection} in the catalog
+     * against the whole product catalog.  All of the searches are evaluated together, in a single pass over the
+     * product catalog, so the cost grows with the size of the product catalog rather than with the product catalog
+     * times the number of DynamicCollections.  Lazy DynamicCollections are left to search when they are next read.
+     */
+    @Override
+    public void refreshDynamicCollections() {
+        List<DynamicCollection> collections = new ArrayList<DynamicCollection>();
+        List<ContentSearch> searches = new ArrayList<ContentSearch>();
+        collectEagerSearches(collections, searches);
+        if (!searches.isEmpty()) {
+            // read before searching, so a collection can tell whether an import landed while its results were computed
+            long catalogVersion = ProductAPI.getInstance().getCatalogVersion();
+            List<List<Content>> results = ProductAPI.getInstance().searchContent(searches);
+            for (int i = 0; i < collections.size(); i++) {
+                collections.get(i).applySearchResults(searches.get(i), results.get(i), catalogVersion);
             }
         }
-        return matchingCollections;
     }
 
     /**
@@ -231,9 +418,10 @@ public class CollectionServiceAPI implements ICollectionServiceAPI {
      * {@link cscie97.asn4.ecommerce.collection.Collection} with matching collectionId in the catalog, ensures that
      * the found collection is actually a {@link cscie97.asn4.ecommerce.collection.DynamicCollection}, and then
      * sets the {@link cscie97.asn4.ecommerce.product.ContentSearch} searchCriteria object on the Collection.
-     * Note that at the time the search criteria on a {@link cscie97.asn4.ecommerce.collection.DynamicCollection} is
-     * defined, it is immediately executed so that the child elements of the
-     * {@link cscie97.asn4.ecommerce.collection.DynamicCollection} are present.
+     * Note that the search is not executed by the caller: once the search criteria on a
+     * {@link cscie97.asn4.ecommerce.collection.DynamicCollection} are defined, the search is queued to run in the
+     * background (see {@link cscie97.asn4.ecommerce.collection.RefreshScheduler}), and the child elements of the
+     * {@link cscie97.asn4.ecommerce.collection.DynamicCollection} are replaced when it completes.
      *
      * @param tokenID         the string access token to check for authentication and authorization for carrying out
      *                        restricted actions on the CollectionServiceAPI
@@ -248,7 +436,9 @@ public class CollectionServiceAPI implements ICollectionServiceAPI {
         if (authenticationAPI.mayAccess(tokenID, PermissionType.DEFINE_COLLECTION_SEARCH_CRITERIA)) {
             Collection foundCollection = this.getCollectionByID(collectionId);
             if (foundCollection != null && foundCollection instanceof DynamicCollection) {
-                ((DynamicCollection)foundCollection).setSearchCriteria(searchCriteria);
+                DynamicCollection dynamicCollection = (DynamicCollection) foundCollection;
+                dynamicCollection.defineSearchCriteria(searchCriteria);
+                this.refreshScheduler.requestRefresh(dynamicCollection);
             }
         }
     }
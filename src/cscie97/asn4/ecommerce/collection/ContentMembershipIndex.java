@@ -0,0 +1,106 @@
+package cscie97.asn4.ecommerce.collection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reverse index from {@link cscie97.asn4.ecommerce.product.Content} ID to the
+ * {@link cscie97.asn4.ecommerce.collection.Collection}s that directly contain a
+ * {@link cscie97.asn4.ecommerce.collection.ContentProxy} for that Content.  It is kept up to date by
+ * {@link cscie97.asn4.ecommerce.collection.Collectible#add(Collectible)} and by the removal of children, so it covers
+ * content added to a collection directly as well as content found or dropped by a
+ * {@link cscie97.asn4.ecommerce.collection.DynamicCollection} search.
+ *
+ * Only the direct parents are indexed.  The collections above them are found by walking up from the parents when
+ * asked (see {@link cscie97.asn4.ecommerce.collection.ICollectionServiceAPI#getCollectionsContaining(String)}), so
+ * that nesting one collection inside another never has to update the entries of all the content beneath it.
+ *
+ * A {@link cscie97.asn4.ecommerce.collection.DynamicCollection} made lazy (see
+ * {@link cscie97.asn4.ecommerce.collection.DynamicCollection#setLazy(boolean)}) only adds its matches when it is
+ * read, so the index reflects its last search: a lazy collection that has never been read is not indexed at all, and
+ * content imported since it was last read is missing until it is read again.  Reading it, through
+ * {@link cscie97.asn4.ecommerce.collection.DynamicCollection#getChildren()} or an iterator or stream over it, brings
+ * its entries up to date.
+ *
+ * @author David Killeffer &lt;rayden7@gmail.com&gt;
+ * @version 1.0
+ * @see cscie97.asn4.ecommerce.collection.CollectionServiceAPI
+ * @see cscie97.asn4.ecommerce.collection.ContentProxy
+ */
+public class ContentMembershipIndex {
+
+    /**
+     * Singleton instance of the ContentMembershipIndex
+     */
+    private static ContentMembershipIndex instance = null;
+
+    /**
+     * The Collections directly containing each Content item, by Content ID; guarded by this index's lock
+     */
+    private Map<String, Set<Collection>> collectionsByContentID = new HashMap<String, Set<Collection>>();
+
+    /**
+     * Class constructor.  Private to enforce the Singleton pattern.
+     */
+    private ContentMembershipIndex() { }
+
+    /**
+     * Returns a reference to the single static instance of the ContentMembershipIndex.
+     *
+     * @return  the singleton instance of the ContentMembershipIndex
+     */
+    public static synchronized ContentMembershipIndex getInstance() {
+        if (instance == null) {
+            instance = new ContentMembershipIndex();
+        }
+        return instance;
+    }
+
+    /**
+     * Records that the Collection now directly contains the Content item.
+     *
+     * @param contentID   the ID of the Content item
+     * @param collection  the Collection it was added to
+     */
+    synchronized void contentAdded(String contentID, Collection collection) {
+        Set<Collection> collections = this.collectionsByContentID.get(contentID);
+        if (collections == null) {
+            collections = Collections.newSetFromMap(new IdentityHashMap<Collection, Boolean>());
+            this.collectionsByContentID.put(contentID, collections);
+        }
+        collections.add(collection);
+    }
+
+    /**
+     * Records that the Collection no longer directly contains the Content item.
+     *
+     * @param contentID   the ID of the Content item
+     * @param collection  the Collection it was removed from
+     */
+    synchronized void contentRemoved(String contentID, Collection collection) {
+        Set<Collection> collections = this.collectionsByContentID.get(contentID);
+        if (collections != null) {
+            collections.remove(collection);
+            if (collections.isEmpty()) {
+                this.collectionsByContentID.remove(contentID);
+            }
+        }
+    }
+
+    /**
+     * Returns the Collections that directly contain the Content item.
+     *
+     * @param contentID  the ID of the Content item
+     * @return  a new list of the Collections directly containing it; empty if there are none
+     */
+    public synchronized List<Collection> getDirectCollections(String contentID) {
+        Set<Collection> collections = this.collectionsByContentID.get(contentID);
+        return (collections == null) ? new ArrayList<Collection>() : new ArrayList<Collection>(collections);
+    }
+
+}
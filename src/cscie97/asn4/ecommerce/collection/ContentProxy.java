@@ -108,10 +108,11 @@ public class ContentProxy extends Collectible {
      * contain child collections, does nothing.
      *
      * @param collectible  not used; method does not modify object in any way
+     * @return  false, since nothing is ever added
      */
     @Override
-    public void add(Collectible collectible) {
-        return;
+    public boolean add(Collectible collectible) {
+        return false;
     }
 
 }
\ No newline at end of file
@@ -3,6 +3,19 @@ package cscie97.asn4.ecommerce.collection;
 import cscie97.asn4.ecommerce.product.Content;
 import cscie97.asn4.ecommerce.product.ContentSearch;
 import cscie97.asn4.ecommerce.product.ProductAPI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * DynamicCollections contain a {@link cscie97.asn4.ecommerce.product.ContentSearch} object which is executed upon
@@ -19,6 +32,21 @@ import cscie97.asn4.ecommerce.product.ProductAPI;
  * the DynamicCollection will have children objects available immediately after defining the search criteria, which
  * aids in iteration (see also {@link cscie97.asn4.ecommerce.collection.CollectionIterator}).
  *
+ * The found items are kept as a materialized view of the catalog: each matching Content item appears once, however
+ * often the search is executed, and changing the search criteria removes the items that no longer match.  For a
+ * DynamicCollection in the {@link cscie97.asn4.ecommerce.collection.ICollectionServiceAPI} catalog, content imported
+ * later is tested against the search criteria as it arrives, only those new items are tested, and the matches are
+ * added in the background by a {@link cscie97.asn4.ecommerce.collection.RefreshScheduler}.
+ *
+ * A DynamicCollection that is rarely read can instead be made lazy (see
+ * {@link cscie97.asn4.ecommerce.collection.DynamicCollection#setLazy(boolean)}).  A lazy collection does not search
+ * when its criteria are set or when content is imported; it searches when it is first read, through
+ * {@link DynamicCollection#getChildren()}, {@link Collectible#getIterator()} or {@link Collectible#stream(boolean)},
+ * and again only when the {@link cscie97.asn4.ecommerce.product.IProductAPI#getCatalogVersion() catalog version} has
+ * moved since the last search.  Readers that arrive while a search is running wait for it and share its result.
+ * Traversals of an enclosing Collection, and the catalog's own bookkeeping, see the results of the last search
+ * without running it.
+ *
  * @author David Killeffer &lt;rayden7@gmail.com&gt;
  * @version 1.0
  * @see cscie97.asn4.ecommerce.collection.Collection
@@ -36,6 +64,47 @@ public class DynamicCollection extends Collection {
      */
     private ContentSearch searchCriteria = null;
 
+    /**
+     * The ContentProxy children added because their Content matched the search criteria, keyed by Content ID; any
+     * children added directly with {@link Collectible#add(Collectible)} are not included
+     */
+    private Map<String, ContentProxy> membersByContentID = new HashMap<String, ContentProxy>();
+
+    /**
+     * One run of the search on behalf of readers of a lazy collection, stamped with the catalog version it was
+     * started at.
+     */
+    private static final class Evaluation {
+        private final long catalogVersion;
+        private final FutureTask<Void> task;
+
+        private Evaluation(long catalogVersion, FutureTask<Void> task) {
+            this.catalogVersion = catalogVersion;
+            this.task = task;
+        }
+    }
+
+    /**
+     * If true, the search is run when the children are read rather than when the criteria are set
+     */
+    private volatile boolean lazy = false;
+
+    /**
+     * The latest evaluation started for readers of a lazy collection, finished or still running; null if the result
+     * must be computed afresh
+     */
+    private AtomicReference<Evaluation> evaluation = new AtomicReference<Evaluation>();
+
+    /**
+     * Number of times readers of a lazy collection have run the search
+     */
+    private AtomicLong evaluationCount = new AtomicLong();
+
+    /**
+     * Number of times the children of the collection have been read
+     */
+    private AtomicLong readCount = new AtomicLong();
+
     /**
      * Class constructor.  Allows for "empty" DynamicCollections to be created.
      */
@@ -53,6 +122,22 @@ public class DynamicCollection extends Collection {
         executeSearch();
     }
 
+    /**
+     * Class constructor.  Sets the search criteria, and either executes the search immediately or, if the collection
+     * is lazy, when its children are first read.
+     *
+     * @param criteria    a {@link cscie97.asn4.ecommerce.product.ContentSearch} object defining the search parameters
+     *                    for {@link cscie97.asn4.ecommerce.product.Content} items
+     * @param lazy        true to search when the children are read, false to search now
+     */
+    public DynamicCollection(ContentSearch criteria, boolean lazy) {
+        this.searchCriteria = criteria;
+        this.lazy = lazy;
+        if (!lazy) {
+            executeSearch();
+        }
+    }
+
     /**
      * Retrieves the {@link cscie97.asn4.ecommerce.product.ContentSearch} object defined for the
      * current DynamicCollection.  Note that if the se
@@ -64,15 +149,147 @@ public class DynamicCollection extends Collection {
     }
 
     /**
-     * Defines and executes the search for {@link cscie97.asn4.ecommerce.product.Content} items.
+     * Defines and executes the search for {@link cscie97.asn4.ecommerce.product.Content} items, replacing the items
+     * found by any earlier search criteria.
      *
      * @param searchCriteria  the {@link cscie97.asn4.ecommerce.product.ContentSearch} to run when finding
      *                        {@link cscie97.asn4.ecommerce.product.Content} for the DynamicCollection
      */
-    public void setSearchCriteria(ContentSearch searchCriteria) {
+    public synchronized void setSearchCriteria(ContentSearch searchCriteria) {
+        defineSearchCriteria(searchCriteria);
+        if (!this.lazy) {
+            // in case the collection does not yet have any children, try to execute the search and find some content
+            executeSearch();
+        }
+    }
+
+    /**
+     * Replaces the search criteria without searching, leaving the search to a
+     * {@link cscie97.asn4.ecommerce.collection.RefreshScheduler} or, for a lazy collection, to the next reader.
+     *
+     * @param searchCriteria  the {@link cscie97.asn4.ecommerce.product.ContentSearch} to run when finding
+     *                        {@link cscie97.asn4.ecommerce.product.Content} for the DynamicCollection
+     */
+    synchronized void defineSearchCriteria(ContentSearch searchCriteria) {
         this.searchCriteria = searchCriteria;
-        // in case the collection does not yet have any children, try to execute the search and find some content
-        executeSearch();
+        // a lazy collection searches again the next time the children are read
+        this.evaluation.set(null);
+    }
+
+    /**
+     * Returns whether the search is run when the children are read, rather than when the criteria are set.
+     *
+     * @return  true if the collection is lazy, false otherwise
+     */
+    public boolean isLazy() {
+        return this.lazy;
+    }
+
+    /**
+     * Chooses when the search is run.  A lazy collection searches when its children are read, and again only once
+     * the catalog has changed; otherwise the search runs as soon as the criteria are set, and newly imported content
+     * is added as it arrives.  Making a collection eager runs the search at once.
+     *
+     * @param lazy  true to search when the children are read, false to search now and keep the results current
+     */
+    public synchronized void setLazy(boolean lazy) {
+        this.lazy = lazy;
+        this.evaluation.set(null);
+        if (!lazy) {
+            executeSearch();
+        }
+    }
+
+    /**
+     * Returns the children of the collection.  For a lazy collection, first runs the search if it has never run or
+     * the catalog has changed since; if another reader is already running that search, waits for it instead.
+     *
+     * @return  the list of child Collectibles
+     */
+    @Override
+    public List<Collectible> getChildren() {
+        beforeRead();
+        return super.getChildren();
+    }
+
+    /**
+     * Counts a client read, whether through {@link DynamicCollection#getChildren()}, an iterator or a stream, and brings
+     * the search results of a lazy collection up to date before it happens.
+     */
+    @Override
+    void beforeRead() {
+        this.readCount.incrementAndGet();
+        if (this.lazy) {
+            ensureCurrent();
+        }
+    }
+
+    /**
+     * Makes sure the children of a lazy collection reflect the current catalog version, running the search at most
+     * once per version no matter how many readers arrive together.
+     */
+    private void ensureCurrent() {
+        long version = ProductAPI.getInstance().getCatalogVersion();
+        while (true) {
+            Evaluation current = this.evaluation.get();
+            if (current != null && current.catalogVersion == version) {
+                // either finished already, or running on behalf of another reader
+                awaitEvaluation(current);
+                return;
+            }
+            Evaluation mine = new Evaluation(version, new FutureTask<Void>(new Runnable() {
+                @Override
+                public void run() {
+                    evaluationCount.incrementAndGet();
+                    executeSearch();
+                }
+            }, null));
+            if (this.evaluation.compareAndSet(current, mine)) {
+                mine.task.run();
+                awaitEvaluation(mine);
+                return;
+            }
+        }
+    }
+
+    private void awaitEvaluation(Evaluation pending) {
+        try {
+            pending.task.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException ee) {
+            // let the next reader try again rather than share the failure
+            this.evaluation.compareAndSet(pending, null);
+            Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Returns how many times readers of this collection, while it was lazy, have run the search.
+     *
+     * @return  the number of lazy evaluations
+     */
+    public long getEvaluationCount() {
+        return this.evaluationCount.get();
+    }
+
+    /**
+     * Returns how many times the children of this collection have been read, which is used to refresh the most read
+     * collections first.
+     *
+     * @return  the number of reads
+     */
+    public long getReadCount() {
+        return this.readCount.get();
     }
 
     /**
@@ -80,15 +297,102 @@ public class DynamicCollection extends Collection {
      * {@link cscie97.asn4.ecommerce.product.IProductAPI}.  The found {@link cscie97.asn4.ecommerce.product.Content}
      * items will be wrapped as {@link cscie97.asn4.ecommerce.collection.ContentProxy} objects, so that all items in
      * a collection share the same properties and may likewise be iterated over simply, despite having different
-     * attributes and features.
+     * attributes and features.  Items found by an earlier search that no longer match are removed, and items that are
+     * already present are not added again.
      */
-    public void executeSearch() {
-        if (this.searchCriteria != null) {
-            for (Content content : ProductAPI.getInstance().searchContent(this.searchCriteria)) {
-                ContentProxy cp = new ContentProxy(content);
-                this.add(cp);
+    public synchronized void executeSearch() {
+        List<Content> found = (this.searchCriteria == null) ? Collections.<Content>emptyList()
+                                                            : ProductAPI.getInstance().searchContent(this.searchCriteria);
+        replaceMembers(found);
+    }
+
+    /**
+     * Replaces the found items with the results of searching the whole catalog, as computed for this collection by a
+     * {@link cscie97.asn4.ecommerce.product.ContentSearchBatch}.  Items found before that are no longer in the
+     * results are removed, and items already present are not added again.  If content has been imported since the
+     * results were computed, it may already have been added by
+     * {@link DynamicCollection#addSearchMatches(ContentSearch, List)} and would look stale, so the search is run
+     * again instead.
+     *
+     * @param evaluated       the search criteria the results were computed for; if the criteria have changed since,
+     *                        the results are out of date and are ignored
+     * @param results         every catalog item that matches the search criteria
+     * @param catalogVersion  the {@link cscie97.asn4.ecommerce.product.IProductAPI#getCatalogVersion() catalog
+     *                        version} read before the results were computed
+     */
+    synchronized void applySearchResults(ContentSearch evaluated, List<Content> results, long catalogVersion) {
+        if (evaluated != this.searchCriteria) {
+            return;
+        }
+        if (catalogVersion != ProductAPI.getInstance().getCatalogVersion()) {
+            executeSearch();
+            return;
+        }
+        replaceMembers(results);
+    }
+
+    /**
+     * Makes the found items exactly the given search results: removes those that are no longer in them, and adds
+     * those not already present.  The caller holds this collection's lock.
+     *
+     * @param results  every catalog item that matches the search criteria
+     */
+    private void replaceMembers(List<Content> results) {
+        Map<String, Content> matches = new LinkedHashMap<String, Content>();
+        for (Content content : results) {
+            if (!matches.containsKey(content.getID())) {
+                matches.put(content.getID(), content);
             }
         }
+
+        Set<Collectible> stale = Collections.newSetFromMap(new IdentityHashMap<Collectible, Boolean>());
+        Iterator<Map.Entry<String, ContentProxy>> members = this.membersByContentID.entrySet().iterator();
+        while (members.hasNext()) {
+            Map.Entry<String, ContentProxy> member = members.next();
+            if (!matches.containsKey(member.getKey())) {
+                stale.add(member.getValue());
+                members.remove();
+            }
+        }
+        if (!stale.isEmpty()) {
+            this.removeChildren(stale);
+        }
+
+        addMembers(matches.values());
+    }
+
+    /**
+     * Adds newly imported items already known to match the search criteria, as computed for this collection by a
+     * {@link cscie97.asn4.ecommerce.product.ContentSearchBatch}.  Does nothing for a lazy collection.
+     *
+     * @param evaluated  the search criteria the matches were computed for; if the criteria have changed since, the
+     *                   matches are out of date and are ignored
+     * @param matches    the newly imported items that match the search criteria
+     */
+    synchronized void addSearchMatches(ContentSearch evaluated, List<Content> matches) {
+        if (this.lazy || evaluated != this.searchCriteria) {
+            return;
+        }
+        addMembers(matches);
+    }
+
+    /**
+     * Wraps each Content item in a ContentProxy and adds them as children in one step, leaving out any whose ID is
+     * already present.
+     *
+     * @param contents  the matching content items
+     */
+    private void addMembers(java.util.Collection<Content> contents) {
+        List<ContentProxy> proxies = new ArrayList<ContentProxy>(contents.size());
+        for (Content content : contents) {
+            if (!this.membersByContentID.containsKey(content.getID())) {
+                proxies.add(new ContentProxy(content));
+            }
+        }
+        for (Collectible added : this.addChildren(proxies)) {
+            ContentProxy cp = (ContentProxy) added;
+            this.membersByContentID.put(cp.getId(), cp);
+        }
     }
 
     /**
@@ -34,8 +34,8 @@ public interface ICollectionServiceAPI {
      * Restricted interface; will validate GUID token before adding content to a collection.  Looks up the
      * {@link cscie97.asn4.ecommerce.collection.Collection} with matching collectionId in the catalog and then adds
      * the passed {@link cscie97.asn4.ecommerce.collection.Collectible} to that
-     * {@link cscie97.asn4.ecommerce.collection.Collection}.  Note that
-     * {@link cscie97.asn4.ecommerce.collection.Collectible}s may be either
+     * {@link cscie97.asn4.ecommerce.collection.Collection}, unless the Collection already has a child with the same
+     * ID.  Note that {@link cscie97.asn4.ecommerce.collection.Collectible}s may be either
      * {@link cscie97.asn4.ecommerce.collection.ContentProxy} items (which wrap
      * {@link cscie97.asn4.ecommerce.product.Content} items that are returned by the
      * {@link cscie97.asn4.ecommerce.product.IProductAPI}, or {@link cscie97.asn4.ecommerce.collection.Collection}
@@ -53,8 +53,7 @@ public interface ICollectionServiceAPI {
 
     /**
      * Given a collection ID, search for any {@link cscie97.asn4.ecommerce.collection.Collection} that matches that
-     * code in the collection catalog.  Constructs a private virtual "root" collection and sets all current top-level
-     * collections as it's children so that it can iterate over every collection in the catalog to find the one that matches.
+     * code in the collection catalog, at any depth.  The match is case-insensitive.
      *
      * @param collectionID  the unique collection ID to find the actual {@link cscie97.asn4.ecommerce.collection.Collection}
      * @return              the found {@link cscie97.asn4.ecommerce.collection.Collection} with the matching ID;
@@ -94,14 +93,44 @@ public interface ICollectionServiceAPI {
      */
     public Set<Collection> searchCollections(String searchCriteria);
 
+    /**
+     * Finds every {@link cscie97.asn4.ecommerce.collection.Collection} in the catalog that contains the
+     * {@link cscie97.asn4.ecommerce.product.Content} item, either directly or through a Collection nested inside it,
+     * for example to show where a product is featured, or to know which collections to refresh when it changes.
+     * Uses a reverse index of the Collections directly containing each Content item, so the cost depends on how many
+     * Collections contain the item rather than on the size of the catalog.
+     *
+     * A lazy {@link cscie97.asn4.ecommerce.collection.DynamicCollection} runs its search only when it is read, so it
+     * is included only once it has been read since the item was imported; this method does not run its search.
+     *
+     * @param contentID  the ID of the Content item
+     * @return  the Collections directly containing the item, followed by the Collections above them; empty if none
+     */
+    public Set<Collection> getCollectionsContaining(String contentID);
+
+    /**
+     * Returns the scheduler that refreshes {@link cscie97.asn4.ecommerce.collection.DynamicCollection}s in the
+     * background, which exposes queue depth and staleness metrics.
+     *
+     * @return  the DynamicCollection refresh scheduler
+     */
+    public RefreshScheduler getRefreshScheduler();
+
+    /**
+     * Re-runs the search of every {@link cscie97.asn4.ecommerce.collection.DynamicCollection} in the catalog against
+     * the whole product catalog, evaluating all of the searches together in a single pass over the product catalog.
+     */
+    public void refreshDynamicCollections();
+
     /**
      * Restricted interface; will validate GUID token before adding content to a collection.  Looks up the
      * {@link cscie97.asn4.ecommerce.collection.Collection} with matching collectionId in the catalog, ensures that
      * the found collection is actually a {@link cscie97.asn4.ecommerce.collection.DynamicCollection}, and then
      * sets the {@link cscie97.asn4.ecommerce.product.ContentSearch} searchCriteria object on the Collection.
-     * Note that at the time the search criteria on a {@link cscie97.asn4.ecommerce.collection.DynamicCollection} is
-     * defined, it is immediately executed so that the child elements of the
-     * {@link cscie97.asn4.ecommerce.collection.DynamicCollection} are present.
+     * Note that the search is not executed by the caller: once the search criteria on a
+     * {@link cscie97.asn4.ecommerce.collection.DynamicCollection} are defined, the search is queued to run in the
+     * background (see {@link cscie97.asn4.ecommerce.collection.RefreshScheduler}), and the child elements of the
+     * {@link cscie97.asn4.ecommerce.collection.DynamicCollection} are replaced when it completes.
      *
      * @param tokenID         the string access token to check for authentication and authorization for carrying out
      *                        restricted actions on the CollectionServiceAPI
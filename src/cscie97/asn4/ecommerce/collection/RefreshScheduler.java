@@ -0,0 +1,368 @@
+package cscie97.asn4.ecommerce.collection;
+
+import cscie97.asn4.ecommerce.product.Content;
+import cscie97.asn4.ecommerce.product.ContentSearch;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Refreshes the search results of {@link cscie97.asn4.ecommerce.collection.DynamicCollection}s in the background, so
+ * that defining search criteria or importing content does not wait for the affected collections to be searched.
+ *
+ * Each collection has at most one refresh waiting at a time.  Requests that arrive while a refresh is waiting are
+ * merged into it: a burst of catalog changes becomes a single refresh that adds all of the new matches, and a request
+ * to search the whole catalog absorbs any additions waiting with it.  A request that arrives once the refresh has
+ * started is queued as a new refresh, so nothing that happened after the search began is missed.
+ *
+ * Refreshes run on a fixed number of dedicated threads.  Waiting refreshes are ordered by how often their collection
+ * has been read (see {@link cscie97.asn4.ecommerce.collection.DynamicCollection#getReadCount()}) when the refresh was
+ * queued, most read first, and otherwise in the order they were requested.  The queue depth and the age of the oldest
+ * request not yet served show how far behind the catalog the collections are.
+ *
+ * @author David Killeffer &lt;rayden7@gmail.com&gt;
+ * @version 1.0
+ * @see cscie97.asn4.ecommerce.collection.DynamicCollection
+ * @see cscie97.asn4.ecommerce.collection.CollectionServiceAPI
+ */
+public class RefreshScheduler {
+
+    /**
+     * A refresh of one collection, covering every request for it made between being queued and being started.
+     */
+    private final class Refresh implements Runnable, Comparable<Refresh> {
+        private final DynamicCollection collection;
+
+        /**
+         * How often the collection had been read when the refresh was queued; more read collections go first
+         */
+        private final long readCount;
+
+        /**
+         * Order of queueing, so that equally read collections are refreshed first come, first served
+         */
+        private final long sequence;
+
+        /**
+         * When the oldest request covered by this refresh was made, from {@link System#nanoTime()}
+         */
+        private final long requestedAt;
+
+        /* what to do; changed only while queued, under the scheduler's lock */
+        private boolean fullSearch;
+        private ContentSearch criteria;
+        private List<Content> additions;
+
+        private Refresh(DynamicCollection collection, long sequence) {
+            this.collection = collection;
+            this.readCount = collection.getReadCount();
+            this.sequence = sequence;
+            this.requestedAt = System.nanoTime();
+        }
+
+        @Override
+        public int compareTo(Refresh other) {
+            int byReads = Long.compare(other.readCount, this.readCount);
+            return (byReads != 0) ? byReads : Long.compare(this.sequence, other.sequence);
+        }
+
+        @Override
+        public void run() {
+            runRefresh(this);
+        }
+    }
+
+    /**
+     * The dedicated refresh threads and their queue of waiting refreshes
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * The refresh waiting to start for each collection; guarded by this scheduler's lock
+     */
+    private final Map<DynamicCollection, Refresh> queued = new HashMap<DynamicCollection, Refresh>();
+
+    /**
+     * The refreshes currently running; guarded by this scheduler's lock
+     */
+    private final Set<Refresh> running = Collections.newSetFromMap(new IdentityHashMap<Refresh, Boolean>());
+
+    private long nextSequence = 0;
+
+    private final AtomicLong requestedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * Class constructor.
+     *
+     * @param threads  the number of collections that may be refreshed at once
+     */
+    public RefreshScheduler(int threads) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new RefreshThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Asks for the collection to be searched again against the whole catalog, for example because its search criteria
+     * have changed.  Lazy collections are skipped, since they search when they are next read.
+     *
+     * @param collection  the collection to refresh
+     */
+    public void requestRefresh(DynamicCollection collection) {
+        if (collection.isLazy()) {
+            return;
+        }
+        Refresh refresh;
+        synchronized (this) {
+            refresh = this.queued.get(collection);
+            if (refresh != null) {
+                this.coalescedCount.incrementAndGet();
+                refresh.fullSearch = true;
+                refresh.additions = null;
+                return;
+            }
+            refresh = newRefresh(collection);
+            refresh.fullSearch = true;
+        }
+        submit(refresh);
+    }
+
+    /**
+     * Asks for newly imported content, already known to match the collection's search criteria, to be added to the
+     * collection.  Merged into any refresh already waiting for the collection.
+     *
+     * @param collection  the collection to add to
+     * @param criteria    the search criteria the matches were found with
+     * @param matches     the newly imported items that match the criteria
+     */
+    void requestAdditions(DynamicCollection collection, ContentSearch criteria, List<Content> matches) {
+        Refresh refresh;
+        synchronized (this) {
+            refresh = this.queued.get(collection);
+            if (refresh != null) {
+                this.coalescedCount.incrementAndGet();
+                if (refresh.fullSearch) {
+                    // the whole catalog will be searched, which finds these items too
+                    return;
+                }
+                if (refresh.criteria != criteria) {
+                    // matched against different criteria, so only a fresh search gives the right answer
+                    refresh.fullSearch = true;
+                    refresh.additions = null;
+                    return;
+                }
+                refresh.additions.addAll(matches);
+                return;
+            }
+            refresh = newRefresh(collection);
+            refresh.criteria = criteria;
+            refresh.additions = new ArrayList<Content>(matches);
+        }
+        submit(refresh);
+    }
+
+    /**
+     * Creates and registers the waiting refresh for a collection; the caller holds this scheduler's lock.
+     */
+    private Refresh newRefresh(DynamicCollection collection) {
+        Refresh refresh = new Refresh(collection, this.nextSequence++);
+        this.queued.put(collection, refresh);
+        this.requestedCount.incrementAndGet();
+        return refresh;
+    }
+
+    private void submit(Refresh refresh) {
+        try {
+            this.executor.execute(refresh);
+        }
+        catch (RejectedExecutionException ree) {
+            // the scheduler has been shut down; refresh on the caller's thread rather than leave the collection stale
+            runRefresh(refresh);
+        }
+    }
+
+    /**
+     * Runs a refresh: takes it off the queue, so that later requests queue a new refresh, and then either searches
+     * the whole catalog or adds the waiting matches.
+     *
+     * @param refresh  the refresh to run
+     */
+    private void runRefresh(Refresh refresh) {
+        boolean fullSearch;
+        ContentSearch criteria;
+        List<Content> additions;
+        synchronized (this) {
+            if (this.queued.get(refresh.collection) == refresh) {
+                this.queued.remove(refresh.collection);
+            }
+            this.running.add(refresh);
+            fullSearch = refresh.fullSearch;
+            criteria = refresh.criteria;
+            additions = refresh.additions;
+        }
+        try {
+            if (fullSearch) {
+                refresh.collection.executeSearch();
+            }
+            else {
+                refresh.collection.addSearchMatches(criteria, additions);
+            }
+            this.completedCount.incrementAndGet();
+        }
+        catch (RuntimeException re) {
+            this.failedCount.incrementAndGet();
+        }
+        finally {
+            synchronized (this) {
+                this.running.remove(refresh);
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until no refresh is waiting or running, for example so that a batch import can read settled results.
+     *
+     * @param timeout  the longest time to wait
+     * @param unit     the unit of timeout
+     * @return  true if every refresh finished, false if the timeout passed first
+     * @throws InterruptedException  if interrupted while waiting
+     */
+    public synchronized boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!this.queued.isEmpty() || !this.running.isEmpty()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of collections with a refresh waiting to start.
+     *
+     * @return  the current queue depth
+     */
+    public synchronized int getQueueDepth() {
+        return this.queued.size();
+    }
+
+    /**
+     * Returns the number of refreshes currently running.
+     *
+     * @return  the number of running refreshes
+     */
+    public synchronized int getRunningCount() {
+        return this.running.size();
+    }
+
+    /**
+     * Returns how long the oldest request not yet fully served has been waiting, counting requests whose refresh is
+     * running.  This is how far behind the catalog the most out-of-date collection may be.
+     *
+     * @return  the age of the oldest outstanding request in milliseconds, or 0 if every collection is current
+     */
+    public synchronized long getMaxStalenessMillis() {
+        long oldest = Long.MAX_VALUE;
+        for (Refresh refresh : this.queued.values()) {
+            oldest = Math.min(oldest, refresh.requestedAt);
+        }
+        for (Refresh refresh : this.running) {
+            oldest = Math.min(oldest, refresh.requestedAt);
+        }
+        return (oldest == Long.MAX_VALUE) ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest);
+    }
+
+    /**
+     * Returns how long the oldest request for the collection that is not yet fully served has been waiting.
+     *
+     * @param collection  the collection to check
+     * @return  the age of the collection's oldest outstanding request in milliseconds, or 0 if it is current
+     */
+    public synchronized long getStalenessMillis(DynamicCollection collection) {
+        long oldest = Long.MAX_VALUE;
+        Refresh waiting = this.queued.get(collection);
+        if (waiting != null) {
+            oldest = waiting.requestedAt;
+        }
+        for (Refresh refresh : this.running) {
+            if (refresh.collection == collection) {
+                oldest = Math.min(oldest, refresh.requestedAt);
+            }
+        }
+        return (oldest == Long.MAX_VALUE) ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest);
+    }
+
+    /**
+     * Returns how many refreshes were queued.
+     *
+     * @return  the number of queued refreshes
+     */
+    public long getRequestedCount() {
+        return this.requestedCount.get();
+    }
+
+    /**
+     * Returns how many requests were merged into a refresh already waiting for the same collection.
+     *
+     * @return  the number of coalesced requests
+     */
+    public long getCoalescedCount() {
+        return this.coalescedCount.get();
+    }
+
+    /**
+     * Returns how many refreshes finished successfully.
+     *
+     * @return  the number of completed refreshes
+     */
+    public long getCompletedCount() {
+        return this.completedCount.get();
+    }
+
+    /**
+     * Returns how many refreshes failed with an exception.
+     *
+     * @return  the number of failed refreshes
+     */
+    public long getFailedCount() {
+        return this.failedCount.get();
+    }
+
+    /**
+     * Stops the refresh threads once the waiting refreshes have run; later requests are run on the caller's thread.
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+    /**
+     * Names the refresh threads and marks them as daemons, so that an idle pool does not keep the JVM alive.
+     */
+    private static final class RefreshThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "collection-refresh-" + this.threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
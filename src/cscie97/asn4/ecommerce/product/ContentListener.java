@@ -0,0 +1,26 @@
+package cscie97.asn4.ecommerce.product;
+
+import java.util.List;
+
+/**
+ * Receives notice of {@link cscie97.asn4.ecommerce.product.Content} items as they are added to the product catalog
+ * by {@link cscie97.asn4.ecommerce.product.IProductAPI#importContent(String, java.util.List)}.  Lets a view over the
+ * catalog, such as a {@link cscie97.asn4.ecommerce.collection.DynamicCollection}, stay current by examining only the
+ * items that were added rather than searching the whole catalog again.
+ *
+ * @author David Killeffer &lt;rayden7@gmail.com&gt;
+ * @version 1.0
+ * @see cscie97.asn4.ecommerce.product.IProductAPI
+ * @see cscie97.asn4.ecommerce.collection.DynamicCollection
+ */
+public interface ContentListener {
+
+    /**
+     * Called after a batch of content items has been added to the product catalog.
+     *
+     * @param addedContent  the content items that were added; items that were invalid or already in the catalog are
+     *                      not included
+     */
+    public void contentAdded(List<Content> addedContent);
+
+}
@@ -2,6 +2,7 @@ package cscie97.asn4.ecommerce.product;
 
 import java.util.HashSet;
 import java.util.Set;
+import org.apache.commons.collections4.CollectionUtils;
 
 /**
  * Represents a user search query of the {@link cscie97.asn4.ecommerce.product.IProductAPI} for
@@ -185,6 +186,68 @@ public class ContentSearch {
         this.contentTypes = contentTypes;
     }
 
+    /**
+     * Checks whether a single {@link cscie97.asn4.ecommerce.product.Content} item matches this search.  An item
+     * matches if any one of its attributes matches the corresponding criteria; collection-based criteria (categories,
+     * devices, countries, languages) match if they share any value with the item.  This is the test
+     * {@link cscie97.asn4.ecommerce.product.IProductAPI#searchContent(ContentSearch)} applies to every item in the
+     * catalog, so it can also be used to test newly added items on their own.
+     *
+     * @param item  the content item to test
+     * @return  true if the item matches this search, false otherwise
+     */
+    public boolean matches(Content item) {
+        // check for content category matches
+        if ( this.getCategories() != null && CollectionUtils.intersection(item.getCategories(), this.getCategories()).size() > 0 ) {
+            return true;
+        }
+        // check for device matches
+        if ( this.getDevices() != null && CollectionUtils.intersection(item.getCompatibleDevices(), this.getDevices()).size() > 0 ) {
+            return true;
+        }
+        // check for country matches
+        if ( this.getCountries() != null && CollectionUtils.intersection(item.getAllowedInCountries(), this.getCountries()).size() > 0 ) {
+            return true;
+        }
+        // check for language code matches; also support partial language code matches.  When languages are
+        // searched for, they alone decide whether the item matches
+        if ( this.getSupportedLanguages() != null &&
+             this.getSupportedLanguages().size() > 0 &&
+             item.getSupportedLanguages() != null &&
+             item.getSupportedLanguages().toString().length() > 0
+        ) {
+            String itemSupportedLanguages = item.getSupportedLanguages().toString().toLowerCase();
+            for (String searchSupportedLanguageCode : this.getSupportedLanguages()) {
+                if (itemSupportedLanguages.contains(searchSupportedLanguageCode.toLowerCase())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        // check for content type matches
+        if ( item.getContentType() != null && this.getContentTypes().contains(item.getContentType()) ) {
+            return true;
+        }
+
+        // check for text search string matches
+        boolean searchTextIsSet = (this.getTextSearch() != null && this.getTextSearch().length() > 0);
+        boolean searchTextInItemName = item.getName().toLowerCase().contains(this.getTextSearch().toLowerCase());
+        boolean searchTextInItemDescription = item.getDescription().toLowerCase().contains(this.getTextSearch().toLowerCase());
+        boolean searchTextInItemAuthorName = item.getAuthorName().toLowerCase().contains(this.getTextSearch().toLowerCase());
+
+        if ( searchTextIsSet && (searchTextInItemName || searchTextInItemDescription || searchTextInItemAuthorName) ) {
+            return true;
+        }
+        // check for minimum rating matches (must ensure that the item rating is also at least 1, or this would
+        // match all content, since the default value for the rating parameter is zero when uninitialized)
+        if ( item.getRating() >= this.getMinimumRating() && item.getRating() >= 1) {
+            return true;
+        }
+        // check for maximum price matches (in this case, if the search maximum price IS zero, we want
+        // to return all content that is free and has a zero price)
+        return this.getMaximumPrice() >= item.getPrice();
+    }
+
     /**
      * Returns a string representation of the content search; useful for debugging.
      *
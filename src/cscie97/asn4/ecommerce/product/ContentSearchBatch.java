@@ -0,0 +1,338 @@
+package cscie97.asn4.ecommerce.product;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates many {@link cscie97.asn4.ecommerce.product.ContentSearch} objects together in a single pass over a set of
+ * {@link cscie97.asn4.ecommerce.product.Content} items, giving each search the same results, in the same order, as
+ * {@link cscie97.asn4.ecommerce.product.ContentSearch#matches(Content)} would.
+ *
+ * Rather than testing every item against every search, the searches are indexed once by their criteria: by
+ * category, device, country, language code, content type, and search text, and sorted by minimum rating and maximum
+ * price.  Each item then looks up the searches it matches from its own attributes, so the work per item depends on
+ * the item's attributes, the number of distinct language codes and search texts, and the number of matches, rather
+ * than on the number of searches.  Item attributes such as the lower-cased name are also computed once per item
+ * instead of once per search.
+ *
+ * @author David Killeffer &lt;rayden7@gmail.com&gt;
+ * @version 1.0
+ * @see cscie97.asn4.ecommerce.product.ContentSearch
+ * @see cscie97.asn4.ecommerce.product.IProductAPI#searchContent(java.util.List)
+ */
+public class ContentSearchBatch {
+
+    /**
+     * Indexes for the criteria that only count when the supported languages do not decide the match.  Searches that
+     * name languages and searches that do not are kept in separate groups, since for an item that lists its supported
+     * languages, only the languages decide the match of the former (see {@link ContentSearch#matches(Content)}).
+     */
+    private static final class CriteriaGroup {
+        private final Map<ContentType, int[]> byContentType;
+        private final Map<String, int[]> byText;
+
+        /**
+         * Searches with a usable minimum rating, ordered by that rating, lowest first
+         */
+        private final int[] byMinimumRating;
+        private final int[] minimumRatings;
+
+        /**
+         * Searches with a usable maximum price, ordered by that price, highest first
+         */
+        private final int[] byMaximumPrice;
+        private final float[] maximumPrices;
+
+        private CriteriaGroup(final List<ContentSearch> searches, List<Integer> members) {
+            Map<ContentType, List<Integer>> contentTypes = new EnumMap<ContentType, List<Integer>>(ContentType.class);
+            Map<String, List<Integer>> texts = new LinkedHashMap<String, List<Integer>>();
+            List<Integer> rated = new ArrayList<Integer>();
+            List<Integer> priced = new ArrayList<Integer>();
+            for (Integer index : members) {
+                ContentSearch search = searches.get(index);
+                if (search.getContentTypes() != null) {
+                    for (ContentType contentType : search.getContentTypes()) {
+                        addTo(contentTypes, contentType, index);
+                    }
+                }
+                if (search.getTextSearch() != null && search.getTextSearch().length() > 0) {
+                    addTo(texts, search.getTextSearch().toLowerCase(), index);
+                }
+                // content ratings run from 0 to 5, and only items rated at least 1 can match on rating
+                if (search.getMinimumRating() <= 5) {
+                    rated.add(index);
+                }
+                // content prices are never negative
+                if (search.getMaximumPrice() >= 0) {
+                    priced.add(index);
+                }
+            }
+            this.byContentType = toArrays(contentTypes);
+            this.byText = toArrays(texts);
+
+            Collections.sort(rated, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Integer.compare(searches.get(a).getMinimumRating(), searches.get(b).getMinimumRating());
+                }
+            });
+            this.byMinimumRating = toArray(rated);
+            this.minimumRatings = new int[rated.size()];
+            for (int i = 0; i < rated.size(); i++) {
+                this.minimumRatings[i] = searches.get(rated.get(i)).getMinimumRating();
+            }
+
+            Collections.sort(priced, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Float.compare(searches.get(b).getMaximumPrice(), searches.get(a).getMaximumPrice());
+                }
+            });
+            this.byMaximumPrice = toArray(priced);
+            this.maximumPrices = new float[priced.size()];
+            for (int i = 0; i < priced.size(); i++) {
+                this.maximumPrices[i] = searches.get(priced.get(i)).getMaximumPrice();
+            }
+        }
+    }
+
+    /**
+     * The searches being evaluated; results are reported in the same order
+     */
+    private final List<ContentSearch> searches;
+
+    private final Map<String, int[]> byCategory;
+    private final Map<Device, int[]> byDevice;
+    private final Map<Country, int[]> byCountry;
+
+    /**
+     * Searches that name supported languages, by lower-cased language code
+     */
+    private final Map<String, int[]> byLanguage;
+
+    private final CriteriaGroup searchesWithLanguages;
+    private final CriteriaGroup searchesWithoutLanguages;
+
+    /**
+     * Class constructor.  Indexes the searches; later changes to them are not seen.
+     *
+     * @param searches  the searches to evaluate together
+     */
+    public ContentSearchBatch(List<ContentSearch> searches) {
+        this.searches = new ArrayList<ContentSearch>(searches);
+
+        Map<String, List<Integer>> categories = new HashMap<String, List<Integer>>();
+        Map<Device, List<Integer>> devices = new HashMap<Device, List<Integer>>();
+        Map<Country, List<Integer>> countries = new HashMap<Country, List<Integer>>();
+        Map<String, List<Integer>> languages = new LinkedHashMap<String, List<Integer>>();
+        List<Integer> withLanguages = new ArrayList<Integer>();
+        List<Integer> withoutLanguages = new ArrayList<Integer>();
+
+        for (int index = 0; index < this.searches.size(); index++) {
+            ContentSearch search = this.searches.get(index);
+            addAll(categories, search.getCategories(), index);
+            addAll(devices, search.getDevices(), index);
+            addAll(countries, search.getCountries(), index);
+            if (search.getSupportedLanguages() != null && search.getSupportedLanguages().size() > 0) {
+                for (String languageCode : search.getSupportedLanguages()) {
+                    addTo(languages, languageCode.toLowerCase(), index);
+                }
+                withLanguages.add(index);
+            }
+            else {
+                withoutLanguages.add(index);
+            }
+        }
+
+        this.byCategory = toArrays(categories);
+        this.byDevice = toArrays(devices);
+        this.byCountry = toArrays(countries);
+        this.byLanguage = toArrays(languages);
+        this.searchesWithLanguages = new CriteriaGroup(this.searches, withLanguages);
+        this.searchesWithoutLanguages = new CriteriaGroup(this.searches, withoutLanguages);
+    }
+
+    /**
+     * Returns the number of searches in the batch.
+     *
+     * @return  the number of searches
+     */
+    public int size() {
+        return this.searches.size();
+    }
+
+    /**
+     * Evaluates every search in the batch against the items, in a single pass over them.
+     *
+     * @param items  the content items to search, such as the whole catalog or just newly added items
+     * @return  one list of matching items per search, in the order the searches were given; each list keeps the
+     *          order of items
+     */
+    public List<List<Content>> evaluate(Iterable<Content> items) {
+        List<List<Content>> results = new ArrayList<List<Content>>(this.searches.size());
+        for (int i = 0; i < this.searches.size(); i++) {
+            results.add(new ArrayList<Content>());
+        }
+        // the last item each search matched, so an item matching on several criteria is reported once
+        int[] lastMatched = new int[this.searches.size()];
+        Arrays.fill(lastMatched, -1);
+
+        int itemNumber = 0;
+        for (Content item : items) {
+            Match match = new Match(item, itemNumber, lastMatched, results);
+
+            // matching on categories, devices, or countries counts for every search
+            if (item.getCategories() != null) {
+                for (String category : item.getCategories()) {
+                    match.add(this.byCategory.get(category));
+                }
+            }
+            if (item.getCompatibleDevices() != null) {
+                for (Device device : item.getCompatibleDevices()) {
+                    match.add(this.byDevice.get(device));
+                }
+            }
+            if (item.getAllowedInCountries() != null) {
+                for (Country country : item.getAllowedInCountries()) {
+                    match.add(this.byCountry.get(country));
+                }
+            }
+
+            if (item.getSupportedLanguages() != null && item.getSupportedLanguages().toString().length() > 0) {
+                // for searches that name languages, only the languages decide the rest of the match
+                String itemSupportedLanguages = item.getSupportedLanguages().toString().toLowerCase();
+                for (Map.Entry<String, int[]> language : this.byLanguage.entrySet()) {
+                    if (itemSupportedLanguages.contains(language.getKey())) {
+                        match.add(language.getValue());
+                    }
+                }
+                match.addRemaining(this.searchesWithoutLanguages);
+            }
+            else {
+                match.addRemaining(this.searchesWithLanguages);
+                match.addRemaining(this.searchesWithoutLanguages);
+            }
+            itemNumber++;
+        }
+        return results;
+    }
+
+    /**
+     * Records the searches that match one item.
+     */
+    private static final class Match {
+        private final Content item;
+        private final int itemNumber;
+        private final int[] lastMatched;
+        private final List<List<Content>> results;
+        private String name;
+        private String description;
+        private String authorName;
+
+        private Match(Content item, int itemNumber, int[] lastMatched, List<List<Content>> results) {
+            this.item = item;
+            this.itemNumber = itemNumber;
+            this.lastMatched = lastMatched;
+            this.results = results;
+        }
+
+        private void add(int[] matchingSearches) {
+            if (matchingSearches != null) {
+                for (int index : matchingSearches) {
+                    add(index);
+                }
+            }
+        }
+
+        private void add(int index) {
+            if (this.lastMatched[index] != this.itemNumber) {
+                this.lastMatched[index] = this.itemNumber;
+                this.results.get(index).add(this.item);
+            }
+        }
+
+        /**
+         * Adds the searches in the group that match on content type, text, minimum rating, or maximum price.
+         */
+        private void addRemaining(CriteriaGroup group) {
+            if (this.item.getContentType() != null) {
+                add(group.byContentType.get(this.item.getContentType()));
+            }
+
+            if (!group.byText.isEmpty()) {
+                if (this.name == null) {
+                    // lower-case the item's text once, however many searches look at it
+                    this.name = lowerCase(this.item.getName());
+                    this.description = lowerCase(this.item.getDescription());
+                    this.authorName = lowerCase(this.item.getAuthorName());
+                }
+                for (Map.Entry<String, int[]> text : group.byText.entrySet()) {
+                    if (this.name.contains(text.getKey()) || this.description.contains(text.getKey()) || this.authorName.contains(text.getKey())) {
+                        add(text.getValue());
+                    }
+                }
+            }
+
+            int rating = this.item.getRating();
+            if (rating >= 1) {
+                for (int i = 0; i < group.byMinimumRating.length && group.minimumRatings[i] <= rating; i++) {
+                    add(group.byMinimumRating[i]);
+                }
+            }
+
+            float price = this.item.getPrice();
+            for (int i = 0; i < group.byMaximumPrice.length && group.maximumPrices[i] >= price; i++) {
+                add(group.byMaximumPrice[i]);
+            }
+        }
+
+        private static String lowerCase(String text) {
+            return (text == null) ? "" : text.toLowerCase();
+        }
+    }
+
+    private static <K> void addAll(Map<K, List<Integer>> index, Collection<K> keys, int search) {
+        if (keys != null) {
+            for (K key : keys) {
+                addTo(index, key, search);
+            }
+        }
+    }
+
+    private static <K> void addTo(Map<K, List<Integer>> index, K key, int search) {
+        List<Integer> searches = index.get(key);
+        if (searches == null) {
+            searches = new ArrayList<Integer>();
+            index.put(key, searches);
+        }
+        // a search that lists the same value twice is indexed under it once
+        if (searches.isEmpty() || searches.get(searches.size() - 1) != search) {
+            searches.add(search);
+        }
+    }
+
+    private static <K> Map<K, int[]> toArrays(Map<K, List<Integer>> index) {
+        Map<K, int[]> arrays = new LinkedHashMap<K, int[]>(Math.max(16, index.size() * 2));
+        for (Map.Entry<K, List<Integer>> entry : index.entrySet()) {
+            arrays.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        return arrays;
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+}
@@ -97,6 +97,30 @@ public interface IProductAPI {
      */
     public void importContent(String guid, List<Content> contentItems);
 
+    /**
+     * Registers a listener to be told about the content items added by each later call to
+     * {@link IProductAPI#importContent(String, java.util.List)}, so that views over the catalog can be kept up to date
+     * by looking at only the new items.  Registering the same listener twice has no effect.
+     *
+     * @param listener  the listener to register
+     */
+    public void addContentListener(ContentListener listener);
+
+    /**
+     * Stops telling a listener about added content items.
+     *
+     * @param listener  the listener to remove
+     */
+    public void removeContentListener(ContentListener listener);
+
+    /**
+     * Returns the current version of the content catalog, which changes whenever content items are added.  A search
+     * result computed at one version is still current as long as the version has not moved.
+     *
+     * @return  the catalog version
+     */
+    public long getCatalogVersion();
+
     /**
      * Search the Product catalog for all matching content items that correspond to the criteria in the supplied
      * search object.  If any content item in the product catalog has an attribute that matches any one of the
@@ -107,6 +131,16 @@ public interface IProductAPI {
      */
     public List<Content> searchContent(ContentSearch search);
 
+    /**
+     * Runs many searches against the Product catalog at once, in a single pass over the catalog rather than one pass
+     * per search.  Each search gets the same results, in the same order, as
+     * {@link IProductAPI#searchContent(ContentSearch)} would give it.
+     *
+     * @param searches  the search objects to run
+     * @return  one list of matching content items per search, in the order the searches were given
+     */
+    public List<List<Content>> searchContent(List<ContentSearch> searches);
+
     /**
      * Returns all {@link cscie97.asn4.ecommerce.product.Application} objects in the product catalog.
      *
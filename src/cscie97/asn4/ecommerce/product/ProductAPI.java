@@ -1,10 +1,12 @@
 package cscie97.asn4.ecommerce.product;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.ArrayList;
-import org.apache.commons.collections4.CollectionUtils;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import cscie97.asn4.ecommerce.authentication.*;
 
 
@@ -54,8 +56,21 @@ public class ProductAPI implements IProductAPI {
 
     /**
      * The unique content items contained in the Product catalog; each content item is unique and only one instance of each is permitted.
+     * The set is never modified: each import replaces it with an updated copy, so searches running on other threads
+     * always see a complete catalog without locking.
      */
-    private Set<Content> contentItems;
+    private volatile Set<Content> contentItems;
+
+    /**
+     * Incremented every time content items are added to the catalog, so that cached search results can tell whether
+     * they are out of date
+     */
+    private AtomicLong catalogVersion = new AtomicLong();
+
+    /**
+     * Listeners told about every batch of content items added to the catalog
+     */
+    private CopyOnWriteArrayList<ContentListener> contentListeners = new CopyOnWriteArrayList<ContentListener>();
 
     /**
      * Singleton instance of the ProductAPI
@@ -63,12 +78,12 @@ public class ProductAPI implements IProductAPI {
     private static IProductAPI instance = null;
 
     /**
-     * Class constructor.  Initially sets all collections to be empty HashSets.
+     * Class constructor.  Initially sets all collections to be empty sets.
      */
     private ProductAPI() {
         this.countries = new HashSet<Country>() { };
         this.devices = new HashSet<Device>(){ };
-        this.contentItems = new HashSet<Content>(){ };
+        this.contentItems = Collections.<Content>emptySet();
         this.authenticationAPI = AuthenticationServiceAPI.getInstance();
     }
 
@@ -148,27 +163,68 @@ public class ProductAPI implements IProductAPI {
      * items).  Each Content item in the product catalog is unique, so only one instance of each content item is
      * allowed (follows the Flyweight pattern).  {@link cscie97.asn4.ecommerce.product.Content} items will be validated
      * based on the {@link cscie97.asn4.ecommerce.product.ContentType} of each item before being added to the product
-     * catalog; invalid content items will be skipped over and not added.
+     * catalog; invalid content items will be skipped over and not added.  Imports are applied one at a time, and
+     * searches see either none or all of the items added by an import.
      *
      * @param tokenID       a string token for a validated and authenticated user to allow restricted interface actions
      * @param contentItems  list of {@link cscie97.asn4.ecommerce.product.Content} objects to add to the product catalog
      */
     public void importContent(String tokenID, List<Content> contentItems) {
         if (authenticationAPI.mayAccess(tokenID, PermissionType.CREATE_PRODUCT)) {
-            for (Content contentItem : contentItems) {
-                if (contentItem instanceof Application && Application.validateContent(contentItem)) {
-                    this.contentItems.add(contentItem);
+            List<Content> addedItems = new ArrayList<Content>();
+            synchronized (this) {
+                Set<Content> updatedItems = new HashSet<Content>(this.contentItems);
+                for (Content contentItem : contentItems) {
+                    boolean valid = (contentItem instanceof Application && Application.validateContent(contentItem)) ||
+                                    (contentItem instanceof Wallpaper && Wallpaper.validateContent(contentItem)) ||
+                                    (contentItem instanceof Ringtone && Ringtone.validateContent(contentItem));
+                    if (valid && updatedItems.add(contentItem)) {
+                        addedItems.add(contentItem);
+                    }
                 }
-                else if (contentItem instanceof Wallpaper && Wallpaper.validateContent(contentItem)) {
-                    this.contentItems.add(contentItem);
+                if (!addedItems.isEmpty()) {
+                    // publish the new items before the version that tells readers to look for them
+                    this.contentItems = Collections.unmodifiableSet(updatedItems);
+                    this.catalogVersion.incrementAndGet();
                 }
-                else if (contentItem instanceof Ringtone && Ringtone.validateContent(contentItem)) {
-                    this.contentItems.add(contentItem);
+            }
+            if (!addedItems.isEmpty()) {
+                for (ContentListener listener : this.contentListeners) {
+                    listener.contentAdded(addedItems);
                 }
             }
         }
     }
 
+    /**
+     * Registers a listener to be told about the content items added by each later call to
+     * {@link ProductAPI#importContent(String, java.util.List)}.  Registering the same listener twice has no effect.
+     *
+     * @param listener  the listener to register
+     */
+    public void addContentListener(ContentListener listener) {
+        this.contentListeners.addIfAbsent(listener);
+    }
+
+    /**
+     * Stops telling a listener about added content items.
+     *
+     * @param listener  the listener to remove
+     */
+    public void removeContentListener(ContentListener listener) {
+        this.contentListeners.remove(listener);
+    }
+
+    /**
+     * Returns the current version of the content catalog, which changes whenever content items are added.  A search
+     * result computed at one version is still current as long as the version has not moved.
+     *
+     * @return  the catalog version
+     */
+    public long getCatalogVersion() {
+        return this.catalogVersion.get();
+    }
+
     /**
      * Search the Product catalog for all matching content items that correspond to the criteria in the supplied
      * search object.  If any content item in the product catalog has an attribute that matches any one of the
@@ -185,72 +241,29 @@ public class ProductAPI implements IProductAPI {
     public List<Content> searchContent(ContentSearch search) {
         List<Content> foundContent = new ArrayList<Content>();
 
-        // for each attribute in the search object, determine if the content matches any of the values; if so, add the
-        // content item to the foundContent result list and continue onto the next item (no need to continue to match
-        // on other attributes - once a content matches any parameter it's included in the result set regardless of
-        // other attribute matches)
+        // once a content item matches any parameter it's included in the result set regardless of other attribute
+        // matches; see ContentSearch.matches()
         for (Content item : this.contentItems) {
-            // check for content category matches
-            if ( search.getCategories() != null && CollectionUtils.intersection(item.getCategories(), search.getCategories()).size() > 0 ) {
-                foundContent.add(item);
-                continue;
-            }
-            // check for device matches
-            if ( search.getDevices() != null && CollectionUtils.intersection(item.getCompatibleDevices(), search.getDevices()).size() > 0 ) {
-                foundContent.add(item);
-                continue;
-            }
-            // check for country matches
-            if ( search.getCountries() != null && CollectionUtils.intersection(item.getAllowedInCountries(), search.getCountries()).size() > 0 ) {
-                foundContent.add(item);
-                continue;
-            }
-            // check for language code matches; also support partial language code matches
-            if ( search.getSupportedLanguages() != null &&
-                 search.getSupportedLanguages().size() > 0 &&
-                 item.getSupportedLanguages() != null &&
-                 item.getSupportedLanguages().toString().length() > 0
-            ) {
-                String itemSupportedLanguages = item.getSupportedLanguages().toString().toLowerCase();
-                for (String searchSupportedLanguageCode : search.getSupportedLanguages()) {
-                    if (itemSupportedLanguages.contains(searchSupportedLanguageCode.toLowerCase())) {
-                        foundContent.add(item);
-                        break;
-                    }
-                }
-                continue;
-            }
-            // check for content type matches
-            if ( item.getContentType() != null && search.getContentTypes().contains(item.getContentType()) ) {
-                foundContent.add(item);
-                continue;
-            }
-
-            // check for text search string matches
-            boolean searchTextIsSet = (search.getTextSearch() != null && search.getTextSearch().length() > 0);
-            boolean searchTextInItemName = item.getName().toLowerCase().contains(search.getTextSearch().toLowerCase());
-            boolean searchTextInItemDescription = item.getDescription().toLowerCase().contains(search.getTextSearch().toLowerCase());
-            boolean searchTextInItemAuthorName = item.getAuthorName().toLowerCase().contains(search.getTextSearch().toLowerCase());
-
-            if ( searchTextIsSet && (searchTextInItemName || searchTextInItemDescription || searchTextInItemAuthorName) ) {
-                foundContent.add(item);
-                continue;
-            }
-            // check for minimum rating matches (must ensure that the item rating is also at least 1, or this would
-            // match all content, since the default value for the rating parameter is zero when uninitialized)
-            if ( item.getRating() >= search.getMinimumRating() && item.getRating() >= 1) {
-                foundContent.add(item);
-                continue;
-            }
-            // check for maximum price matches (in this case, if the search maximum price IS zero, we want
-            // to return all content that is free and has a zero price)
-            if ( search.getMaximumPrice() >= item.getPrice() ) {
+            if (search.matches(item)) {
                 foundContent.add(item);
             }
         }
         return foundContent;
     }
 
+    /**
+     * Runs many searches against the Product catalog at once, in a single pass over the catalog rather than one pass
+     * per search.  Each search gets the same results, in the same order, as
+     * {@link ProductAPI#searchContent(ContentSearch)} would give it.
+     *
+     * @param searches  the search objects to run
+     * @return  one list of matching content items per search, in the order the searches were given
+     * @see cscie97.asn4.ecommerce.product.ContentSearchBatch
+     */
+    public List<List<Content>> searchContent(List<ContentSearch> searches) {
+        return new ContentSearchBatch(searches).evaluate(this.contentItems);
+    }
+
     /**
      * Given a 2-character country code, search for any country that matches in the product catalog.
      * @param code  a 2-character country code
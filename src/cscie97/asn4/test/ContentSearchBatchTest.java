@@ -0,0 +1,182 @@
+package cscie97.asn4.test;
+
+import cscie97.asn4.ecommerce.product.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Test harness checking that a {@link cscie97.asn4.ecommerce.product.ContentSearchBatch} gives every search the same
+ * results, in the same order, as testing each item with
+ * {@link cscie97.asn4.ecommerce.product.ContentSearch#matches(cscie97.asn4.ecommerce.product.Content)}.  Covers the
+ * rules of matches() that the batch's indexes have to reproduce: supported languages alone decide the match when both
+ * the search and the item name them, an item only matches on rating if it is rated at least 1, and a maximum price of
+ * zero matches free items.  Then compares the two on many random searches.  Needs no datafiles; the catalog is built
+ * in memory.  Exits with a non-zero status if any check fails.
+ *
+ * @author David Killeffer &lt;rayden7@gmail.com&gt;
+ * @version 1.0
+ * @see cscie97.asn4.ecommerce.product.ContentSearchBatch
+ * @see cscie97.asn4.ecommerce.product.ContentSearch#matches(cscie97.asn4.ecommerce.product.Content)
+ */
+public class ContentSearchBatchTest {
+
+    private static final Country USA = new Country("US", "United States", "OPEN");
+    private static final Country FRANCE = new Country("FR", "France", "OPEN");
+    private static final Device PHONE = new Device("phone", "Phone", "Acme");
+    private static final Device TABLET = new Device("tablet", "Tablet", "Acme");
+
+    private static int failures = 0;
+
+    /**
+     * Runs every check and reports the result.
+     *
+     * @param args  optionally, the number of random searches to compare; defaults to 2000
+     */
+    public static void main(String[] args) {
+        int randomSearches = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+        List<Content> catalog = buildCatalog();
+
+        // an item naming its languages is decided by them alone, even though its content type also matches
+        ContentSearch germanApplications = new ContentSearch();
+        germanApplications.setSupportedLanguages(set("de"));
+        germanApplications.setContentTypes(set(ContentType.APPLICATION));
+        check("languages alone decide", catalog, germanApplications, "german_app", "no_languages_app");
+
+        // rating 0 never matches on rating, whatever the minimum
+        ContentSearch unrated = new ContentSearch();
+        unrated.setMinimumRating(0);
+        check("rating at least 1", catalog, unrated, "german_app", "rated_wallpaper", "top_ringtone");
+
+        // a maximum price of zero matches the free items
+        ContentSearch free = new ContentSearch();
+        free.setMaximumPrice(0);
+        check("price of zero", catalog, free, "free_app", "free_unrated_ringtone");
+
+        compareRandomSearches(catalog, randomSearches);
+
+        if (failures > 0) {
+            System.out.println("FAILED: " + failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("PASSED: ContentSearchBatch matches ContentSearch.matches() on " + (randomSearches + 3) + " searches");
+    }
+
+    /**
+     * Checks one search against both the expected item IDs and ContentSearch.matches().
+     */
+    private static void check(String rule, List<Content> catalog, ContentSearch search, String... expectedIDs) {
+        List<Content> batched = new ContentSearchBatch(Collections.singletonList(search)).evaluate(catalog).get(0);
+        List<String> batchedIDs = new ArrayList<String>();
+        for (Content content : batched) {
+            batchedIDs.add(content.getID());
+        }
+        if (!batchedIDs.equals(Arrays.asList(expectedIDs))) {
+            fail(rule + ": expected " + Arrays.asList(expectedIDs) + " but the batch found " + batchedIDs);
+        }
+        if (!batched.equals(matchOneByOne(catalog, search))) {
+            fail(rule + ": the batch disagrees with ContentSearch.matches()");
+        }
+    }
+
+    /**
+     * Evaluates batches of random searches, built from the attributes of the catalog plus values no item has, and
+     * compares each search's results with ContentSearch.matches().
+     */
+    private static void compareRandomSearches(List<Content> catalog, int count) {
+        List<String> categories = Arrays.asList("games", "music", "tools", "none");
+        List<String> languages = Arrays.asList("en", "EN", "fr", "de", "e", "xx");
+        List<String> texts = Arrays.asList("", "", "app", "RING", "paper", "acme", "zzz");
+        List<Device> devices = Arrays.asList(PHONE, TABLET);
+        List<Country> countries = Arrays.asList(USA, FRANCE);
+        List<ContentType> contentTypes = Arrays.asList(ContentType.values());
+
+        Random random = new Random(47);
+        List<ContentSearch> searches = new ArrayList<ContentSearch>();
+        for (int i = 0; i < count; i++) {
+            ContentSearch search = new ContentSearch();
+            search.setCategories(pick(random, categories));
+            search.setSupportedLanguages(pick(random, languages));
+            search.setDevices(pick(random, devices));
+            search.setCountries(pick(random, countries));
+            search.setContentTypes(pick(random, contentTypes));
+            search.setTextSearch(texts.get(random.nextInt(texts.size())));
+            search.setMinimumRating(random.nextInt(8) - 1);
+            search.setMaximumPrice((random.nextInt(4) == 0) ? -1f : random.nextInt(7) * 0.5f);
+            searches.add(search);
+        }
+
+        List<List<Content>> batched = new ContentSearchBatch(searches).evaluate(catalog);
+        int mismatches = 0;
+        for (int i = 0; i < searches.size(); i++) {
+            if (!batched.get(i).equals(matchOneByOne(catalog, searches.get(i)))) {
+                mismatches++;
+            }
+        }
+        if (mismatches > 0) {
+            fail(mismatches + " of " + count + " random searches disagree with ContentSearch.matches()");
+        }
+    }
+
+    private static List<Content> matchOneByOne(List<Content> catalog, ContentSearch search) {
+        List<Content> matches = new ArrayList<Content>();
+        for (Content content : catalog) {
+            if (search.matches(content)) {
+                matches.add(content);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Builds a small catalog covering free and priced items, rated and unrated items, and items with and without
+     * supported languages.
+     */
+    private static List<Content> buildCatalog() {
+        List<Content> catalog = new ArrayList<Content>();
+        catalog.add(new Application("german_app", "German App", "an app", "Acme", 2, set("tools"),
+                set(PHONE), 1.5f, set(USA), set("de"), "http://example.com/a.png", ContentType.APPLICATION, 1000));
+        catalog.add(new Application("free_app", "Free App", "an app", "Acme", 0, set("games"),
+                set(PHONE, TABLET), 0f, set(USA, FRANCE), set("en"), "http://example.com/b.png", ContentType.APPLICATION, 2000));
+        catalog.add(new Application("no_languages_app", "Quiet App", "an app", "Someone", 0, set("tools"),
+                set(TABLET), 3f, set(FRANCE), null, "http://example.com/c.png", ContentType.APPLICATION, 3000));
+        catalog.add(new Application("rated_wallpaper", "Sunset", "a wallpaper", "Painter", 1, set("art"),
+                set(PHONE), 0.99f, set(USA), set("en", "fr"), "http://example.com/d.png", ContentType.WALLPAPER, 400));
+        catalog.add(new Application("free_unrated_ringtone", "Ring Ring", "a ringtone", "Acme", 0, set("music"),
+                set(PHONE), 0f, set(FRANCE), set("fr"), "http://example.com/e.png", ContentType.RINGTONE, 50));
+        catalog.add(new Application("top_ringtone", "Chime", "a ringtone", "Bell", 5, set("music"),
+                set(TABLET), 2.5f, set(USA), set("en"), "http://example.com/f.png", ContentType.RINGTONE, 60));
+        return catalog;
+    }
+
+    /**
+     * Returns a random subset of up to two of the values; an empty subset leaves the criterion out of the search.
+     */
+    private static <T> Set<T> pick(Random random, List<T> values) {
+        Set<T> picked = new HashSet<T>();
+        int size = random.nextInt(3);
+        for (int i = 0; i < size; i++) {
+            picked.add(values.get(random.nextInt(values.size())));
+        }
+        return picked;
+    }
+
+    @SafeVarargs
+    private static <T> Set<T> set(T... values) {
+        Set<T> set = new HashSet<T>();
+        for (T value : values) {
+            set.add(value);
+        }
+        return set;
+    }
+
+    private static void fail(String reason) {
+        System.out.println("FAILED: " + reason);
+        failures++;
+    }
+
+}
@@ -0,0 +1,65 @@
+package cscie97.asn4.test;
+
+import cscie97.asn4.ecommerce.authentication.*;
+import cscie97.asn4.ecommerce.exception.*;
+
+/**
+ * Test harness checking that the {@link cscie97.asn4.ecommerce.authentication.AuthenticationImporter} refuses an
+ * add_entitlement_to_role line that would introduce a cycle into the Role graph, and reports the line it was on,
+ * rather than silently dropping it.  Run with the supplied authentication-cyclic.csv datafile, whose last line adds
+ * a Role to one of its own descendants.  Exits with a non-zero status if the check fails.
+ *
+ * @author David Killeffer &lt;rayden7@gmail.com&gt;
+ * @version 1.0
+ * @see cscie97.asn4.ecommerce.authentication.AuthenticationImporter
+ * @see cscie97.asn4.ecommerce.authentication.Role#addChild(cscie97.asn4.ecommerce.authentication.Entitlement)
+ */
+public class CyclicRoleImportTest {
+
+    /**
+     * The line of authentication-cyclic.csv that would close the cycle
+     */
+    private static final int CYCLIC_LINE = 11;
+
+    /**
+     * Imports the cyclic Authentication datafile as the super user and checks that the import fails at the cyclic
+     * line.
+     *
+     * @param args  optionally, the filename of the cyclic Authentication CSV datafile; defaults to
+     *              authentication-cyclic.csv
+     */
+    public static void main(String[] args) {
+        String filename = (args.length > 0) ? args[0] : "authentication-cyclic.csv";
+        IAuthenticationServiceAPI authenticationAPI = AuthenticationServiceAPI.getInstance();
+        try {
+            AccessToken superToken = authenticationAPI.login("dkilleffer", "secret");
+            try {
+                AuthenticationImporter.importAuthenticationFile(superToken.getId(), filename);
+                fail("the cyclic Role line was accepted");
+            }
+            catch (ImportException ie) {
+                // the importer wraps the ParseException for the rejected line
+                if (ie.getLineIndexWhereFailed() != CYCLIC_LINE || !(ie.getCause() instanceof ParseException)) {
+                    fail("the import failed at line " + ie.getLineIndexWhereFailed() + " with " + ie.getCause());
+                }
+            }
+            catch (ParseException pe) {
+                fail("the import failed with an unwrapped ParseException: " + pe.getMessage());
+            }
+            catch (AuthenticationImportException aie) {
+                fail("the import failed hashing a credential at line " + aie.getLineIndexWhereFailed());
+            }
+            authenticationAPI.logout(superToken.getId());
+        }
+        catch (AccessDeniedException ade) {
+            fail(ade.getMessage());
+        }
+        System.out.println("PASSED: cyclic add_entitlement_to_role rejected at line " + CYCLIC_LINE);
+    }
+
+    private static void fail(String reason) {
+        System.out.println("FAILED: " + reason);
+        System.exit(1);
+    }
+
+}
@@ -0,0 +1,127 @@
+package cscie97.asn4.test;
+
+import cscie97.asn4.ecommerce.authentication.*;
+import cscie97.asn4.ecommerce.collection.*;
+import cscie97.asn4.ecommerce.exception.*;
+import cscie97.asn4.ecommerce.product.*;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test harness showing when a lazy {@link cscie97.asn4.ecommerce.collection.DynamicCollection} appears in
+ * {@link cscie97.asn4.ecommerce.collection.ICollectionServiceAPI#getCollectionsContaining(String)}.  A lazy collection
+ * only searches when it is read, so it is missing from the results until it has been read, and missing again for
+ * content imported after that read until it is read once more; an eager collection with the same search is listed
+ * throughout.  Run with the supplied authentication, countries, devices and products datafiles.  Exits with a
+ * non-zero status if any check fails.
+ *
+ * @author David Killeffer &lt;rayden7@gmail.com&gt;
+ * @version 1.0
+ * @see cscie97.asn4.ecommerce.collection.ContentMembershipIndex
+ * @see cscie97.asn4.ecommerce.collection.DynamicCollection#setLazy(boolean)
+ */
+public class LazyMembershipTest {
+
+    /**
+     * Imports the datafiles, adds a lazy and an eager DynamicCollection with the same search to the catalog, and
+     * checks which of them getCollectionsContaining() reports before and after the lazy one is read.
+     *
+     * @param args  optionally, the filenames of the Authentication, Countries, Devices and Products CSV datafiles;
+     *              default to authentication.csv, countries.csv, devices.csv and products.csv
+     */
+    public static void main(String[] args) {
+        String[] filenames = (args.length == 4) ? args
+                : new String[] { "authentication.csv", "countries.csv", "devices.csv", "products.csv" };
+        IAuthenticationServiceAPI authenticationAPI = AuthenticationServiceAPI.getInstance();
+        IProductAPI productAPI = ProductAPI.getInstance();
+        ICollectionServiceAPI collectionAPI = CollectionServiceAPI.getInstance();
+        try {
+            AccessToken superToken = authenticationAPI.login("dkilleffer", "secret");
+            AuthenticationImporter.importAuthenticationFile(superToken.getId(), filenames[0]);
+            authenticationAPI.logout(superToken.getId());
+
+            AccessToken productAdminToken = authenticationAPI.login("sam", "secret");
+            ContentImporter.importCountryFile(productAdminToken.getId(), filenames[1]);
+            ContentImporter.importDeviceFile(productAdminToken.getId(), filenames[2]);
+            ContentImporter.importContentFile(productAdminToken.getId(), filenames[3]);
+
+            // both collections gather every application in the same categories as this one
+            Application existing = productAPI.getAllApplications().get(0);
+            ContentSearch sameCategories = new ContentSearch();
+            sameCategories.setCategories(existing.getCategories());
+
+            DynamicCollection lazy = new DynamicCollection(sameCategories, true);
+            lazy.setId("lazy_membership");
+            lazy.setName("Lazy membership");
+            lazy.setDescription("searched when read");
+            DynamicCollection eager = new DynamicCollection(sameCategories, false);
+            eager.setId("eager_membership");
+            eager.setName("Eager membership");
+            eager.setDescription("searched when defined");
+
+            AccessToken collectionAdminToken = authenticationAPI.login("lucy", "4567");
+            collectionAPI.addCollection(collectionAdminToken.getId(), lazy);
+            collectionAPI.addCollection(collectionAdminToken.getId(), eager);
+            authenticationAPI.logout(collectionAdminToken.getId());
+
+            check("before the lazy collection is read", collectionAPI, existing.getID(), eager, lazy, false);
+            if (lazy.getEvaluationCount() != 0) {
+                fail("getCollectionsContaining() ran the lazy search");
+            }
+            lazy.getChildren();
+            check("after the lazy collection is read", collectionAPI, existing.getID(), eager, lazy, true);
+
+            // a new application in the same categories reaches the eager collection in the background
+            Application imported = new Application("lazy_membership_probe", "Membership Probe", existing.getDescription(),
+                    existing.getAuthorName(), existing.getRating(), existing.getCategories(),
+                    existing.getCompatibleDevices(), existing.getPrice(), existing.getAllowedInCountries(),
+                    existing.getSupportedLanguages(), existing.getImageURL(), ContentType.APPLICATION, 1024);
+            productAPI.importContent(productAdminToken.getId(), Collections.<Content>singletonList(imported));
+            authenticationAPI.logout(productAdminToken.getId());
+            if (!collectionAPI.getRefreshScheduler().awaitIdle(10, TimeUnit.SECONDS)) {
+                fail("the background refresh did not finish");
+            }
+
+            check("after a later import", collectionAPI, imported.getID(), eager, lazy, false);
+            lazy.getChildren();
+            check("after the lazy collection is read again", collectionAPI, imported.getID(), eager, lazy, true);
+        }
+        catch (AccessDeniedException ade) {
+            fail(ade.getMessage());
+        }
+        catch (ImportException ie) {
+            fail("the import failed at line " + ie.getLineIndexWhereFailed() + ": " + ie.getMessage());
+        }
+        catch (ParseException pe) {
+            fail("the import failed: " + pe.getMessage());
+        }
+        catch (AuthenticationImportException aie) {
+            fail("the import failed hashing a credential at line " + aie.getLineIndexWhereFailed());
+        }
+        catch (InterruptedException ie) {
+            fail("interrupted waiting for the background refresh");
+        }
+        System.out.println("PASSED: lazy DynamicCollections are listed as containing content only once read");
+    }
+
+    /**
+     * Checks that the eager collection always contains the content item, and the lazy one only when expected.
+     */
+    private static void check(String when, ICollectionServiceAPI collectionAPI, String contentID,
+                              DynamicCollection eager, DynamicCollection lazy, boolean lazyExpected) {
+        Set<Collection> containing = collectionAPI.getCollectionsContaining(contentID);
+        if (!containing.contains(eager)) {
+            fail(when + ": the eager collection does not contain [" + contentID + "]");
+        }
+        if (containing.contains(lazy) != lazyExpected) {
+            fail(when + ": the lazy collection is " + (lazyExpected ? "missing" : "listed") + " for [" + contentID + "]");
+        }
+    }
+
+    private static void fail(String reason) {
+        System.out.println("FAILED: " + reason);
+        System.exit(1);
+    }
+
+}
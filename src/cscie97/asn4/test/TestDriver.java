@@ -118,6 +118,12 @@ public class TestDriver {
                 System.out.println(ie.getMessage());
                 System.exit(1);
             }
+            // if we catch an AuthenticationImportException, a Credential password in the Authentication file could not
+            // be hashed, so the program should fail and exit
+            catch (AuthenticationImportException aie) {
+                System.out.println(aie.getMessage());
+                System.exit(1);
+            }
             // if we catch a CollectionNotFoundException, adding content to collections, defining dynamic collection
             // search criteria, or searching collections failed because of a bad ID passed, so the program should fail and exit
             catch (CollectionNotFoundException cnfe) {